@@ -0,0 +1,179 @@
+/*
+ * FloatVectorKernel.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A kernel that iterates points in floats, twice as many at once as
+ * {@link VectorKernel} iterates in doubles. Floats round differently, so
+ * each lane also carries a bound on how far its z may have drifted from
+ * the z that doubles would give. A lane that escapes while its distance
+ * from the escape circle exceeds the bound escapes at the same iteration
+ * in doubles, and its count is kept. Lanes whose escape is too close to
+ * call, and lanes that reach the limit, whose orbits must be exact, are
+ * iterated again in doubles. The results are therefore identical to those
+ * of the other kernels.
+ * <p>
+ * This pays off only on shallow views, where most points escape quickly
+ * and far from the circle; see {@link Scene#usesSinglePrecision()}.
+ * Like {@link VectorKernel}, this class uses the incubating Vector API.
+ *
+ * @author Matthew Nelson
+ */
+class FloatVectorKernel implements Kernel {
+
+	private static final VectorSpecies<Float> SPECIES
+			= FloatVector.SPECIES_PREFERRED;
+
+	/**
+	 * The number of iterations between checks for whether any lane is still
+	 * iterating.
+	 */
+	private static final int CHECK_INTERVAL = 8;
+
+	/**
+	 * The largest relative error of rounding a real number to a float.
+	 */
+	private static final float UNIT = 0x1p-24f;
+
+	/**
+	 * Iterates the points the floats cannot decide.
+	 */
+	private final Kernel fallback = new VectorKernel();
+
+	public void iterate(double[] cx, double[] cy, int length, int limit,
+			boolean periodicity, int[] counts, double[] zx, double[] zy) {
+
+		final int lanes = SPECIES.length();
+		final float[] fx = new float[lanes];
+		final float[] fy = new float[lanes];
+		final float[] n = new float[lanes];
+		final boolean[] decided = new boolean[lanes];
+
+		// Points left to iterate in doubles, and where they came from
+		double[] rx = new double[length];
+		double[] ry = new double[length];
+		int[] ri = new int[length];
+		int m = 0;
+
+		int i = 0;
+		for (; i + lanes <= length; i += lanes) {
+			for (int j = 0; j < lanes; ++j) {
+				fx[j] = (float) cx[i + j];
+				fy[j] = (float) cy[i + j];
+			}
+			iterateGroup(fx, fy, limit, n, decided);
+			for (int j = 0; j < lanes; ++j) {
+				if (decided[j]) {
+					counts[i + j] = (int) n[j];
+				} else {
+					rx[m] = cx[i + j];
+					ry[m] = cy[i + j];
+					ri[m++] = i + j;
+				}
+			}
+		}
+
+		// Fewer points than lanes are left
+		for (; i < length; ++i) {
+			rx[m] = cx[i];
+			ry[m] = cy[i];
+			ri[m++] = i;
+		}
+
+		if (m == 0) {
+			return;
+		}
+		int[] rc = new int[m];
+		double[] rzx = new double[m];
+		double[] rzy = new double[m];
+		fallback.iterate(rx, ry, m, limit, periodicity, rc, rzx, rzy);
+		for (int k = 0; k < m; ++k) {
+			counts[ri[k]] = rc[k];
+			zx[ri[k]] = rzx[k];
+			zy[ri[k]] = rzy[k];
+		}
+
+	}
+
+	/**
+	 * Iterates one group of points, storing their counts in <code>n</code>,
+	 * which holds integers exactly, and whether each count is the one
+	 * doubles would give in <code>decided</code>.
+	 */
+	private static void iterateGroup(float[] cx, float[] cy, int limit,
+			float[] n, boolean[] decided) {
+
+		final FloatVector vcx = FloatVector.fromArray(SPECIES, cx, 0);
+		final FloatVector vcy = FloatVector.fromArray(SPECIES, cy, 0);
+		FloatVector x = vcx;
+		FloatVector y = vcy;
+		FloatVector x2 = x.mul(x);
+		FloatVector y2 = y.mul(y);
+		FloatVector r2 = x2.add(y2);
+		FloatVector count = FloatVector.zero(SPECIES);
+
+		// The bound on the error of z starts as the error of rounding c,
+		// which every step adds again
+		final FloatVector ce = vcx.abs().add(vcy.abs()).mul(4 * UNIT);
+		FloatVector error = ce;
+
+		// Lanes still iterating, and lanes whose escape was too close to
+		// call. Rounding c alone can move a point near the circle across
+		// it, so the first test is bounded like the others.
+		VectorMask<Float> active = r2.compare(VectorOperators.LT, 4);
+		VectorMask<Float> ambiguous = r2.sub(4).abs().compare(
+				VectorOperators.LE, error.mul(error.add(4))
+						.add(r2.mul(2 * UNIT)));
+
+		for (int k = 0; k < limit; ++k) {
+
+			// Squaring z doubles its relative error, and the products and
+			// sums each round once more
+			error = error.mul(r2.sqrt().mul(2).add(error))
+					.add(r2.mul(6 * UNIT)).add(ce);
+
+			// z <- z^2 + c, where z is the complex number x+y*i
+			y = x.mul(2).mul(y).add(vcy);
+			x = x2.sub(y2).add(vcx);
+
+			// Update squares
+			x2 = x.mul(x);
+			y2 = y.mul(y);
+			r2 = x2.add(y2);
+
+			// Update counters of the lanes that took this step, mark those
+			// that may have escaped on another step in doubles, then retire
+			// the lanes that escaped
+			count = count.add(1, active);
+			ambiguous = ambiguous.or(active.and(r2.sub(4).abs()
+					.compare(VectorOperators.LE, error.mul(error.add(4)))));
+			active = active.and(r2.compare(VectorOperators.LT, 4));
+
+			// Ambiguous lanes will be redone, so only the others are waited
+			// for
+			if ((k & (CHECK_INTERVAL - 1)) == CHECK_INTERVAL - 1
+					&& !active.andNot(ambiguous).anyTrue()) {
+				break;
+			}
+
+		}
+
+		count.intoArray(n, 0);
+		for (int j = 0; j < n.length; ++j) {
+			decided[j] = !active.laneIsSet(j) && !ambiguous.laneIsSet(j);
+		}
+
+	}
+
+}
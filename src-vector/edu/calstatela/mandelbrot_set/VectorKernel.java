@@ -0,0 +1,149 @@
+/*
+ * VectorKernel.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A kernel that iterates as many points at once as the processor has
+ * double lanes in its widest vectors: four with AVX2, eight with AVX-512.
+ * The points of a group iterate in lockstep; a mask tracks which have not
+ * yet escaped or cycled, and the group stops once none are left. Each
+ * lane performs the same operations in the same order as the scalar loop,
+ * so the results are identical.
+ * <p>
+ * This class uses the incubating Vector API. It is compiled only on JDKs
+ * that provide it, and loaded only when the <code>jdk.incubator.vector</code>
+ * module is present at run time; see {@link RenderingDaemon}.
+ *
+ * @author Matthew Nelson
+ */
+class VectorKernel implements Kernel {
+
+	private static final VectorSpecies<Double> SPECIES
+			= DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * The number of iterations between checks for cycles and for whether
+	 * any lane is still iterating. Must be a power of two.
+	 */
+	private static final int CHECK_INTERVAL = 16;
+
+	public void iterate(double[] cx, double[] cy, int length, int limit,
+			boolean periodicity, int[] counts, double[] zx, double[] zy) {
+
+		final int lanes = SPECIES.length();
+		final double[] n = new double[lanes];
+		int i = 0;
+		for (; i + lanes <= length; i += lanes) {
+			iterateGroup(cx, cy, i, limit, periodicity, zx, zy, n);
+			for (int j = 0; j < lanes; ++j) {
+				counts[i + j] = (int) n[j];
+			}
+		}
+
+		// Fewer points than lanes are left
+		final double[] orbit = new double[2];
+		for (; i < length; ++i) {
+			counts[i] = RenderingDaemon.iterate(cx[i], cy[i], cx[i], cy[i], 0,
+					limit, periodicity, orbit);
+			zx[i] = orbit[0];
+			zy[i] = orbit[1];
+		}
+
+	}
+
+	/**
+	 * Iterates one group of points starting at <code>offset</code>, storing
+	 * their counts in <code>n</code>, which holds integers exactly.
+	 */
+	private static void iterateGroup(double[] cx, double[] cy, int offset,
+			int limit, boolean periodicity, double[] zx, double[] zy,
+			double[] n) {
+
+		final DoubleVector vcx = DoubleVector.fromArray(SPECIES, cx, offset);
+		final DoubleVector vcy = DoubleVector.fromArray(SPECIES, cy, offset);
+		DoubleVector x = vcx;
+		DoubleVector y = vcy;
+		DoubleVector x2 = x.mul(x);
+		DoubleVector y2 = y.mul(y);
+		DoubleVector count = DoubleVector.zero(SPECIES);
+
+		// Lanes still iterating, and lanes whose orbit was found to cycle
+		VectorMask<Double> active = x2.add(y2).compare(VectorOperators.LT, 4);
+		VectorMask<Double> cycled = SPECIES.maskAll(false);
+
+		// Saved orbit points, and the schedule for replacing them, which
+		// lockstep makes the same for every lane
+		DoubleVector px = x;
+		DoubleVector py = y;
+		int power = 1;
+		int lambda = 0;
+
+		for (int k = 0; k < limit; ++k) {
+
+			// z <- z^2 + c, where z is the complex number x+y*i
+			y = x.mul(2).mul(y).add(vcy);
+			x = x2.sub(y2).add(vcx);
+
+			// Update squares
+			x2 = x.mul(x);
+			y2 = y.mul(y);
+
+			// Update counters of the lanes that took this step, then retire
+			// the lanes that escaped
+			count = count.add(1, active);
+			active = active.and(x2.add(y2).compare(VectorOperators.LT, 4));
+
+			// Testing masks is slow, so cycles and whether any lane is left
+			// are only checked every few iterations. A cycle found late
+			// gives the same count.
+			if ((k & (CHECK_INTERVAL - 1)) != CHECK_INTERVAL - 1) {
+				continue;
+			}
+			if (periodicity) {
+
+				// A repeated value means the orbit is periodic
+				VectorMask<Double> repeated = active
+						.and(x.compare(VectorOperators.EQ, px))
+						.and(y.compare(VectorOperators.EQ, py));
+				cycled = cycled.or(repeated);
+				active = active.andNot(repeated);
+
+				// Blending rather than assigning conditionally keeps the
+				// compiler from moving the vectors to the heap
+				boolean save = ++lambda == power;
+				VectorMask<Double> all = SPECIES.maskAll(save);
+				px = px.blend(x, all);
+				py = py.blend(y, all);
+				if (save) {
+					power <<= 1;
+					lambda = 0;
+				}
+
+			}
+			if (!active.anyTrue()) {
+				break;
+			}
+
+		}
+
+		// Cycling points are in the set, and report no orbit. Escaped lanes
+		// kept iterating, so their z is meaningless.
+		count = count.blend((double) limit, cycled);
+		count.intoArray(n, 0);
+		x.blend(Double.NaN, cycled).intoArray(zx, offset);
+		y.blend(Double.NaN, cycled).intoArray(zy, offset);
+
+	}
+
+}
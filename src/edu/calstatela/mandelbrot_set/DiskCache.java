@@ -0,0 +1,549 @@
+/*
+ * DiskCache.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Keeps the iteration counts and saved orbits of rendered scenes in files,
+ * so that views rendered by an earlier run of the application load at disk
+ * speed instead of being iterated again. Colors are not kept; loaded
+ * counts are colored with whatever palette is in use. Scenes are keyed by
+ * the same view as in {@link FrameCache}, less the options that only
+ * change colors.
+ * <p>
+ * Each scene is one file of packed counts and orbits. Small files are read
+ * into memory; large ones are read through a memory mapping, which is
+ * released as soon as they are read. An index file lists the files from
+ * least to most recently used, so that the least recently used are deleted
+ * first once the files exceed a budget of bytes. Loading only reorders the
+ * index in memory; it is written with the next file stored or deleted, so
+ * that reading a file never writes. Files are written under temporary names
+ * and renamed into place, the index last, so a crash leaves either the old
+ * file or the new one. Files the index does not list, and entries whose
+ * file is missing, are dropped on startup.
+ * <p>
+ * Scenes are written by a background thread. Any failure to read or write
+ * a file only loses that entry.
+ *
+ * @author Matthew Nelson
+ */
+class DiskCache {
+
+	/**
+	 * Marks the start of every file, followed by a version number.
+	 */
+	private static final int MAGIC = 0x4d424343;
+	private static final int VERSION = 1;
+
+	private static final String INDEX = "index";
+	private static final String SUFFIX = ".counts";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	/**
+	 * Files up to this many bytes are read into the heap rather than
+	 * mapped, which costs less than setting up and tearing down a mapping.
+	 */
+	private static final long MAPPING_THRESHOLD = 1 << 20;
+
+	/**
+	 * The means of unmapping a buffer at once, or null if this JVM has
+	 * none. See {@link #unmap(ByteBuffer)}.
+	 */
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class c = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+			Field f = c.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", //$NON-NLS-1$
+					new Class[] { ByteBuffer.class });
+		} catch (Exception e) {
+			// Mappings are left to the garbage collector
+		} catch (LinkageError e) {
+			// Likewise
+		}
+		UNSAFE = invokeCleaner != null ? unsafe : null;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final File directory;
+
+	/**
+	 * Cached files by scene key, from least to most recently used.
+	 */
+	private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+	/**
+	 * Scenes waiting to be written, oldest first.
+	 */
+	private final LinkedList pending = new LinkedList();
+
+	private long budget;
+	private long size = 0;
+	private boolean indexChanged = false;
+
+	/**
+	 * Opens a cache in a directory, creating it if needed, and starts the
+	 * thread that writes to it. A directory that cannot be used leaves the
+	 * cache empty.
+	 *
+	 * @param directory the directory holding the cache's files
+	 * @param budget the most bytes of files to keep
+	 */
+	public DiskCache(File directory, long budget) {
+		this.directory = directory;
+		this.budget = budget;
+		directory.mkdirs();
+		readIndex();
+
+		Thread writer = new Thread() {
+			public void run() {
+				while (true) {
+					write(waitForWork());
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+	}
+
+	/**
+	 * Changes the most bytes of files to keep, deleting files as needed.
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+		notifyAll();
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of bytes of files kept.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Loads the counts of a scene, and its saved orbits if they were kept,
+	 * into the scene. A file that is truncated, corrupt, or holds counts
+	 * the scene could not have is deleted, and the scene must be rendered.
+	 *
+	 * @return true if the scene's counts were found
+	 */
+	public boolean load(Scene scene) {
+		String key = getKey(scene);
+		Entry entry;
+		synchronized (this) {
+			// Moves the entry to the most recently used end
+			entry = (Entry) entries.get(key);
+			if (entry == null) {
+				return false;
+			}
+		}
+
+		// Read outside the lock, so the writer is not held up; files are
+		// only ever replaced whole
+		int length = scene.getHorizontalResolution()
+				* scene.getVerticalResolution();
+		try {
+			FileInputStream in = new FileInputStream(
+					new File(directory, entry.name));
+			ByteBuffer buffer = null;
+			try {
+				buffer = read(in.getChannel());
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+						|| !key.equals(readString(buffer))) {
+					throw new IOException("not the file of this scene");
+				}
+				int[] counts = PackedInts.read(buffer, length);
+				int limit = scene.getLimit();
+				for (int i = 0; i < length; ++i) {
+					if (counts[i] < 0 || counts[i] > limit) {
+						throw new IOException("count out of range");
+					}
+				}
+				ResumeState state = null;
+				int orbits = buffer.getInt();
+				if (orbits >= 0) {
+					state = new ResumeState(limit);
+					for (int e = 0; e < orbits; ++e) {
+						int i = buffer.getInt();
+						double x = buffer.getDouble();
+						double y = buffer.getDouble();
+						int n = buffer.getInt();
+						if (i < 0 || i >= length || n < 0 || n > limit) {
+							throw new IOException("bad orbit");
+						}
+						state.add(i, x, y, n);
+					}
+				}
+				scene.setCounts(counts);
+				if (state != null) {
+					scene.setResumeState(state);
+				}
+				return true;
+			} finally {
+				if (buffer != null && buffer.isDirect()) {
+					unmap(buffer);
+				}
+				in.close();
+			}
+		} catch (IOException e) {
+			remove(key, entry);
+			return false;
+		} catch (BufferUnderflowException e) {
+			remove(key, entry);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the whole of a file, copied into the heap if it is small, or
+	 * mapped otherwise.
+	 */
+	private static ByteBuffer read(FileChannel channel) throws IOException {
+		long length = channel.size();
+		if (length > MAPPING_THRESHOLD) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("truncated file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Unmaps a mapped buffer at once, rather than whenever the garbage
+	 * collector finds it, so that its file may be replaced or deleted and
+	 * its address space is returned. Where this JVM offers no way to do
+	 * so, the buffer is left to the collector. The buffer, and every
+	 * buffer sliced from it, must not be used again.
+	 */
+	private static void unmap(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, new Object[] { buffer });
+		} catch (Exception e) {
+			// Left to the collector
+		}
+	}
+
+	/**
+	 * Queues the counts of a finished scene, and its saved orbits if kept,
+	 * to be written.
+	 *
+	 * @param scene the scene
+	 * @param counts the scene's counts
+	 * @param state the scene's saved orbits, or null
+	 */
+	public synchronized void store(Scene scene, int[] counts,
+			ResumeState state) {
+		pending.addLast(new Work(getKey(scene), counts, state));
+		notifyAll();
+	}
+
+	/**
+	 * Waits for a scene to write, or for a change to the index. Returns
+	 * null if only the index needs writing.
+	 */
+	private synchronized Work waitForWork() {
+		while (pending.isEmpty() && !indexChanged) {
+			try {
+				wait();
+			} catch (InterruptedException unused) {}
+		}
+		return pending.isEmpty() ? null : (Work) pending.removeFirst();
+	}
+
+	/**
+	 * Writes a scene's file, if given, and then the index.
+	 */
+	private void write(Work work) {
+
+		if (work != null) {
+			String name = Long.toHexString(hash(work.key)) + SUFFIX;
+			File file = new File(directory, name);
+			File temporary = new File(directory, name + TEMPORARY_SUFFIX);
+			try {
+				PackedInts counts = new PackedInts(work.counts);
+				FileOutputStream stream = new FileOutputStream(temporary);
+				try {
+					DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(stream));
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeUTF(work.key);
+					counts.write(out);
+					ResumeState state = work.state;
+					if (state == null) {
+						out.writeInt(-1);
+					} else {
+						out.writeInt(state.size());
+						for (int e = 0; e < state.size(); ++e) {
+							out.writeInt(state.getIndex(e));
+							out.writeDouble(state.getX(e));
+							out.writeDouble(state.getY(e));
+							out.writeInt(state.getCount(e));
+						}
+					}
+					out.flush();
+					stream.getChannel().force(true);
+				} finally {
+					stream.close();
+				}
+				synchronized (this) {
+					Files.move(temporary.toPath(), file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					Entry old = (Entry) entries.put(work.key,
+							new Entry(name, file.length()));
+					if (old != null) {
+						size -= old.bytes;
+					}
+					size += file.length();
+					evict();
+					indexChanged = true;
+				}
+			} catch (IOException e) {
+				temporary.delete();
+			}
+		}
+
+		synchronized (this) {
+			if (indexChanged) {
+				indexChanged = false;
+				try {
+					saveIndex();
+				} catch (IOException e) {
+					// Dropped entries are found again on startup
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Deletes the files of the least recently used scenes until the rest
+	 * fit the budget.
+	 */
+	private void evict() {
+		Iterator i = entries.values().iterator();
+		while (size > budget && i.hasNext()) {
+			Entry entry = (Entry) i.next();
+			i.remove();
+			size -= entry.bytes;
+			new File(directory, entry.name).delete();
+			indexChanged = true;
+		}
+	}
+
+	/**
+	 * Forgets an entry whose file could not be read, and deletes the file.
+	 */
+	private synchronized void remove(String key, Entry entry) {
+		if (entries.get(key) == entry) {
+			entries.remove(key);
+			size -= entry.bytes;
+			new File(directory, entry.name).delete();
+			indexChanged = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Writes the index under a temporary name and renames it into place.
+	 */
+	private void saveIndex() throws IOException {
+		File temporary = new File(directory, INDEX + TEMPORARY_SUFFIX);
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(stream));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			Iterator i = entries.entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry e = (Map.Entry) i.next();
+				Entry entry = (Entry) e.getValue();
+				out.writeUTF((String) e.getKey());
+				out.writeUTF(entry.name);
+				out.writeLong(entry.bytes);
+			}
+			out.flush();
+			stream.getChannel().force(true);
+		} finally {
+			stream.close();
+		}
+		Files.move(temporary.toPath(), new File(directory, INDEX).toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the index, keeping the entries whose files are intact, and
+	 * deletes every other file in the directory.
+	 */
+	private synchronized void readIndex() {
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(new File(directory, INDEX))));
+			try {
+				if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+					int count = in.readInt();
+					for (int e = 0; e < count; ++e) {
+						String key = in.readUTF();
+						String name = in.readUTF();
+						long bytes = in.readLong();
+						if (new File(directory, name).length() == bytes) {
+							entries.put(key, new Entry(name, bytes));
+							size += bytes;
+						}
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Start over with whatever entries were read
+		}
+
+		// Files left by a crash, or that could not be deleted before
+		LinkedList names = new LinkedList();
+		Iterator i = entries.values().iterator();
+		while (i.hasNext()) {
+			names.add(((Entry) i.next()).name);
+		}
+		String[] files = directory.list();
+		for (int f = 0; files != null && f < files.length; ++f) {
+			if ((files[f].endsWith(SUFFIX)
+					|| files[f].endsWith(TEMPORARY_SUFFIX))
+					&& !names.contains(files[f])) {
+				new File(directory, files[f]).delete();
+			}
+		}
+
+		evict();
+
+	}
+
+	/**
+	 * Returns a string identifying the counts of a scene.
+	 */
+	private static String getKey(Scene scene) {
+		StringBuffer key = new StringBuffer();
+		key.append(scene.getHorizontalResolution()).append('x');
+		key.append(scene.getVerticalResolution()).append(' ');
+		key.append(scene.getLimit()).append(' ');
+		key.append(scene.getExactSeeTop().stripTrailingZeros()).append(' ');
+		key.append(scene.getExactSeeBottom().stripTrailingZeros()).append(' ');
+		key.append(scene.getExactSeeLeft().stripTrailingZeros()).append(' ');
+		key.append(scene.getExactSeeRight().stripTrailingZeros());
+		if (scene.isSubdividing()) {
+			key.append(" subdividing");
+		}
+		if (scene.isSeriesApproximation()) {
+			key.append(" series");
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of a string, which names its file.
+	 */
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); ++i) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Reads a string written by {@link DataOutputStream#writeUTF(String)}.
+	 * Keys are plain ASCII, which it encodes as is.
+	 */
+	private static String readString(ByteBuffer buffer) {
+		char[] chars = new char[buffer.getShort() & 0xffff];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = (char) (buffer.get() & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * A file and its length.
+	 */
+	private static class Entry {
+
+		final String name;
+		final long bytes;
+
+		Entry(String name, long bytes) {
+			this.name = name;
+			this.bytes = bytes;
+		}
+
+	}
+
+	/**
+	 * A scene waiting to be written.
+	 */
+	private static class Work {
+
+		final String key;
+		final int[] counts;
+		final ResumeState state;
+
+		Work(String key, int[] counts, ResumeState state) {
+			this.key = key;
+			this.counts = counts;
+			this.state = state;
+		}
+
+	}
+
+}
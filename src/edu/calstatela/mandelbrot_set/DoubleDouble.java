@@ -0,0 +1,129 @@
+/*
+ * DoubleDouble.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.math.BigDecimal;
+
+/**
+ * Escape-time iteration in double-double arithmetic. Each number is the
+ * unevaluated sum of two doubles, a high part and a low part no larger
+ * than half a unit in the last place of the high part, giving about 106
+ * bits of precision. This resolves views roughly 10^16 times deeper than
+ * plain doubles, with no approximation.
+ *
+ * @author Matthew Nelson
+ */
+class DoubleDouble {
+
+	private DoubleDouble() {}
+
+	/**
+	 * Returns the low part of a double-double approximating <code>x</code>
+	 * with the given high part, which must be within a unit in the last
+	 * place of <code>x</code>.
+	 */
+	public static double lowPart(BigDecimal x, double high) {
+		return x.subtract(new BigDecimal(high)).doubleValue();
+	}
+
+	/**
+	 * Iterates z &lt;- z^2 + c, starting from z = c, until z escapes the
+	 * circle of radius 2 or the limit is reached. Cycles are detected as in
+	 * {@link RenderingDaemon#iterate(double, double, double, double, int,
+	 * int, boolean, double[])}, comparing both parts exactly.
+	 *
+	 * @param cxh the high part of the real part of c
+	 * @param cxl the low part of the real part of c
+	 * @param cyh the high part of the imaginary part of c
+	 * @param cyl the low part of the imaginary part of c
+	 * @param limit the maximum number of iterations
+	 * @param periodicity whether to check for cycles
+	 * @return the number of iterations before escaping, or
+	 *         <code>limit</code> if the point never escaped
+	 */
+	public static int iterate(double cxh, double cxl, double cyh,
+			double cyl, int limit, boolean periodicity) {
+
+		double zxh = cxh, zxl = cxl;
+		double zyh = cyh, zyl = cyl;
+
+		// Saved orbit point, and the schedule for replacing it
+		double pxh = zxh, pxl = zxl, pyh = zyh, pyl = zyl;
+		int power = 1;
+		int lambda = 0;
+
+		int n = 0;
+		while (n < limit && zxh * zxh + zyh * zyh < 4) {
+
+			// Squares and product of the parts of z, each as an exact
+			// high part plus its rounding error
+			double xxh = zxh * zxh;
+			double xxl = Math.fma(zxh, zxh, -xxh) + 2 * zxh * zxl;
+			double yyh = zyh * zyh;
+			double yyl = Math.fma(zyh, zyh, -yyh) + 2 * zyh * zyl;
+			double xyh = zxh * zyh;
+			double xyl = Math.fma(zxh, zyh, -xyh) + zxh * zyl + zxl * zyh;
+
+			// zx <- zx^2 - zy^2 + cx
+			double sh = xxh - yyh;
+			double bb = sh - xxh;
+			double sl = (xxh - (sh - bb)) + (-yyh - bb) + xxl - yyl;
+			double th = sh + sl;
+			sl -= th - sh;
+			sh = th;
+			double nxh = sh + cxh;
+			bb = nxh - sh;
+			double nxl = (sh - (nxh - bb)) + (cxh - bb) + sl + cxl;
+			zxh = nxh + nxl;
+			zxl = nxl - (zxh - nxh);
+
+			// zy <- 2 zx zy + cy
+			xyh *= 2;
+			xyl *= 2;
+			double nyh = xyh + cyh;
+			bb = nyh - xyh;
+			double nyl = (xyh - (nyh - bb)) + (cyh - bb) + xyl + cyl;
+			zyh = nyh + nyl;
+			zyl = nyl - (zyh - nyh);
+
+			++n;
+
+			// A repeated value means the orbit is periodic
+			if (periodicity) {
+				if (zxh == pxh && zxl == pxl && zyh == pyh && zyl == pyl) {
+					return limit;
+				}
+				if (++lambda == power) {
+					pxh = zxh;
+					pxl = zxl;
+					pyh = zyh;
+					pyl = zyl;
+					power <<= 1;
+					lambda = 0;
+				}
+			}
+
+		}
+		return n;
+
+	}
+
+	/**
+	 * Stores the sum of a double-double and a double in <code>sum</code>,
+	 * as { high, low }.
+	 */
+	public static void add(double ah, double al, double b, double[] sum) {
+		double sh = ah + b;
+		double bb = sh - ah;
+		double sl = (ah - (sh - bb)) + (b - bb) + al;
+		sum[0] = sh + sl;
+		sum[1] = sl - (sum[0] - sh);
+	}
+
+}
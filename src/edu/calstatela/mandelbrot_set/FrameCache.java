@@ -0,0 +1,308 @@
+/*
+ * FrameCache.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * Holds the rendered data of scenes that are not on screen, within a
+ * budget of bytes. Scenes are keyed by their view: resolution, limit,
+ * window, and the options that change their pixels. When the budget is
+ * exceeded, the scenes used least recently discard their data and must be
+ * rendered again if they return.
+ * <p>
+ * A scene returning to the screen takes back its own data if it is still
+ * cached, or the data of another scene of the same view, so that coming
+ * back to a view by any path reuses its pixels.
+ * <p>
+ * Cached scenes are packed by a background thread: their counts are
+ * compressed and their images dropped, to be unpacked and colored again by
+ * the rendering thread when they return. Only antialiased images are kept,
+ * compressed as well. A packed scene usually holds a tenth of the memory
+ * or less, so the budget holds that many more of them.
+ *
+ * @author Matthew Nelson
+ */
+class FrameCache {
+
+	/**
+	 * Cached scenes by key, from least to most recently used.
+	 */
+	private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+	
+	/**
+	 * Cached scenes waiting to be packed, oldest first.
+	 */
+	private final LinkedList pending = new LinkedList();
+
+	private long budget;
+	private long size = 0;
+
+	/*
+	 * Statistics, for measuring the effect of the budget.
+	 */
+
+	private int hits = 0;
+	private int misses = 0;
+	private int evictions = 0;
+
+	/**
+	 * Creates an empty cache, and starts the thread that packs its scenes.
+	 *
+	 * @param budget the most bytes of data to hold
+	 */
+	public FrameCache(long budget) {
+		this.budget = budget;
+		Thread packer = new Thread() {
+			public void run() {
+				while (true) {
+					pack(waitForPending());
+				}
+			}
+		};
+		packer.setDaemon(true);
+		packer.setPriority(Thread.MIN_PRIORITY);
+		packer.start();
+	}
+
+	/**
+	 * Changes the most bytes of data to hold, evicting scenes as needed.
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of bytes of data held.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Adds a scene leaving the screen, replacing any other scene of the
+	 * same view. Scenes without data are ignored.
+	 */
+	public synchronized void put(Scene scene) {
+		long bytes = scene.getDataSize();
+		if (bytes == 0) {
+			return;
+		}
+		Entry entry = new Entry(scene, bytes);
+		Entry old = (Entry) entries.put(new Key(scene), entry);
+		if (old != null) {
+			old.cached = false;
+			size -= old.bytes;
+			if (old.scene != scene) {
+				old.scene.discardData();
+			}
+		}
+		size += bytes;
+		evict();
+		
+		pending.addLast(entry);
+		notifyAll();
+	}
+
+	/**
+	 * Takes a scene back from the cache as it returns to the screen. If it
+	 * has no image, it takes the data of a cached scene of the same view
+	 * instead, if there is one. As when a scene replaces another in
+	 * {@link #put(Scene)}, the other scene then discards its references to
+	 * the shared data, which would otherwise be held outside the budget.
+	 *
+	 * @return true if the scene now has an image
+	 */
+	public synchronized boolean restore(Scene scene) {
+		Entry entry = (Entry) entries.remove(new Key(scene));
+		if (entry != null) {
+			entry.cached = false;
+			size -= entry.bytes;
+			if (entry.scene != scene) {
+				scene.copyData(entry.scene);
+				entry.scene.discardData();
+			}
+			++hits;
+		} else if (scene.getImage() == null) {
+			++misses;
+		}
+		return scene.getImage() != null;
+	}
+
+	/**
+	 * Returns the number of scenes restored with their data.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of scenes that had to be rendered again.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of scenes that discarded their data to fit the
+	 * budget.
+	 */
+	public synchronized int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Discards the data of the least recently used scenes until the rest
+	 * fit the budget.
+	 */
+	private void evict() {
+		Iterator i = entries.values().iterator();
+		while (size > budget && i.hasNext()) {
+			Entry entry = (Entry) i.next();
+			i.remove();
+			entry.cached = false;
+			size -= entry.bytes;
+			entry.scene.discardData();
+			++evictions;
+		}
+	}
+
+	private synchronized Entry waitForPending() {
+		while (pending.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException unused) {}
+		}
+		return (Entry) pending.removeFirst();
+	}
+	
+	/**
+	 * Packs a cached scene, unless it has left the cache. Compression runs
+	 * without holding the cache's lock, so the user interface never waits
+	 * for it.
+	 */
+	private void pack(Entry entry) {
+		
+		Scene scene = entry.scene;
+		int[] counts = scene.getCounts();
+		Image image = scene.getImage();
+		if (!isCached(entry) || counts == null) {
+			return;
+		}
+		
+		PackedInts packed = new PackedInts(counts);
+		PackedInts pixels = null;
+		if (scene.getAntialiasing() > 1 && image != null) {
+			pixels = new PackedInts(RenderingDaemon.getRGB(
+					(BufferedImage) image));
+		}
+		
+		synchronized (this) {
+			if (entry.cached && scene.pack(counts, image, packed, pixels)) {
+				size -= entry.bytes;
+				entry.bytes = scene.getDataSize();
+				size += entry.bytes;
+			}
+		}
+		
+	}
+	
+	private synchronized boolean isCached(Entry entry) {
+		return entry.cached;
+	}
+
+	/**
+	 * A cached scene and the bytes it holds.
+	 */
+	private static class Entry {
+
+		final Scene scene;
+		long bytes;
+		boolean cached = true;
+
+		Entry(Scene scene, long bytes) {
+			this.scene = scene;
+			this.bytes = bytes;
+		}
+
+	}
+
+	/**
+	 * Identifies the pixels of a scene. Scenes with equal keys render the
+	 * same counts.
+	 */
+	private static class Key {
+
+		private final int hRes;
+		private final int vRes;
+		private final int limit;
+		private final BigDecimal top;
+		private final BigDecimal bottom;
+		private final BigDecimal left;
+		private final BigDecimal right;
+		private final boolean subdividing;
+		private final boolean seriesApproximation;
+		private final int antialiasing;
+		private final int antialiasingThreshold;
+
+		Key(Scene scene) {
+			hRes = scene.getHorizontalResolution();
+			vRes = scene.getVerticalResolution();
+			limit = scene.getLimit();
+
+			// Equal values with different scales are the same edge
+			top = scene.getExactSeeTop().stripTrailingZeros();
+			bottom = scene.getExactSeeBottom().stripTrailingZeros();
+			left = scene.getExactSeeLeft().stripTrailingZeros();
+			right = scene.getExactSeeRight().stripTrailingZeros();
+
+			subdividing = scene.isSubdividing();
+			seriesApproximation = scene.isSeriesApproximation();
+			antialiasing = scene.getAntialiasing();
+			antialiasingThreshold = scene.getAntialiasingThreshold();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return hRes == k.hRes && vRes == k.vRes && limit == k.limit
+					&& top.equals(k.top) && bottom.equals(k.bottom)
+					&& left.equals(k.left) && right.equals(k.right)
+					&& subdividing == k.subdividing
+					&& seriesApproximation == k.seriesApproximation
+					&& antialiasing == k.antialiasing
+					&& antialiasingThreshold == k.antialiasingThreshold;
+		}
+
+		public int hashCode() {
+			int h = hRes;
+			h = 31 * h + vRes;
+			h = 31 * h + limit;
+			h = 31 * h + top.hashCode();
+			h = 31 * h + bottom.hashCode();
+			h = 31 * h + left.hashCode();
+			h = 31 * h + right.hashCode();
+			return h;
+		}
+
+	}
+
+}
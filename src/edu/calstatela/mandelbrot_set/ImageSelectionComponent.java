@@ -12,6 +12,10 @@ package edu.calstatela.mandelbrot_set;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.VolatileImage;
 import javax.swing.*;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -30,9 +34,10 @@ import java.util.LinkedList;
 public class ImageSelectionComponent extends JPanel {
 	
 	/*
-	 * The following code handles the marching ants effect. In addition, the
-	 * constructor creates a Timer that periodically invokes marchAnts.run(),
-	 * and the paintComponent(Graphics) method picks the correct stroke.
+	 * The following code handles the marching ants effect. In addition,
+	 * startAnts() schedules a task on a Timer that periodically invokes
+	 * marchAnts.run() while there is a selection, and the
+	 * paintComponent(Graphics) method picks the correct stroke.
 	 */
 
 	private static final Stroke[] ANT_STROKES = new Stroke[6];
@@ -51,12 +56,16 @@ public class ImageSelectionComponent extends JPanel {
 			if (box != null) {
 				currentStroke = (currentStroke + 1) % ANT_STROKES.length;
 
-				// Mark dirty region for repainting
-				repaint(box);
+				// Only the border changes, and the image under it is
+				// copied from the frame
+				paintBorder(box);
 			}
 		}
 	};
 	
+	private final Timer marchingAntTimer = new Timer(true);
+	private TimerTask marchingAntTask = null;
+	
 	/*
 	 * The following member variables store the selection status and image.
 	 */
@@ -68,7 +77,15 @@ public class ImageSelectionComponent extends JPanel {
 	
 	private boolean scaleImage;
 	private Image image = null;
-	private Rectangle visible;	
+	private Rectangle2D visible;	
+	
+	/*
+	 * The following member variables cache the image as drawn on the
+	 * panel, scaled and cropped, so that repaints only copy it.
+	 */
+	
+	private Image frame = null;
+	private Rectangle staleRegion = null;
 	
 	/**
 	 * Constructs a new <code>ImageSelectionComponent</code>.
@@ -79,7 +96,7 @@ public class ImageSelectionComponent extends JPanel {
 	 * @param visible the portion of the image to be maximized when scaling 
 	 */
 	public ImageSelectionComponent(boolean scaling,
-			Image image, Rectangle visible) {
+			Image image, Rectangle2D visible) {
 
 		this.scaleImage = scaling;
 		setImage(image, visible);
@@ -94,13 +111,6 @@ public class ImageSelectionComponent extends JPanel {
 		addMouseMotionListener(mouseMotionListener);
 		addKeyListener(keyListener);
 
-		Timer marchingAntTimer = new Timer(true);
-		marchingAntTimer.scheduleAtFixedRate(new TimerTask() {
-			public void run() {
-				SwingUtilities.invokeLater(marchAnts);
-			}
-		}, ANT_DELAY, ANT_DELAY);
-
 	}
 
 	/**
@@ -138,6 +148,7 @@ public class ImageSelectionComponent extends JPanel {
 			// Create new selection
 			origin = new Point(e.getX(), e.getY());
 			box = new Rectangle(e.getX(), e.getY(), 0, 0);
+			startAnts();
 			
 			leftButtonDown = true;
 		}
@@ -172,7 +183,7 @@ public class ImageSelectionComponent extends JPanel {
 				return;
 			}
 				 
-			Rectangle dirtyRegion = (Rectangle) box.clone();
+			Rectangle oldBox = (Rectangle) box.clone();
 				
 			// Compute new selection
 			box.width = Math.abs(e.getX() - origin.x);
@@ -194,9 +205,11 @@ public class ImageSelectionComponent extends JPanel {
 				box.height = getHeight() - box.y;
 			}
 
-			// Mark dirty region for repainting
-			dirtyRegion = dirtyRegion.union(box);
-			repaint(dirtyRegion);
+			// Erase the old border and draw the new one
+			if (!box.equals(oldBox)) {
+				paintBorder(oldBox);
+				paintBorder(box);
+			}
 		}
 			
 	};
@@ -225,65 +238,23 @@ public class ImageSelectionComponent extends JPanel {
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2 = (Graphics2D) g;
 		
-		g2.setColor(getBackground());
-		if (image == null) {
+		if (image == null || getWidth() <= 0 || getHeight() <= 0) {
 			
 			// No image, so draw empty background
+			g2.setColor(getBackground());
 			g2.fillRect(0, 0, getWidth(), getHeight());
 			
-		} else {
+		} else if (isIndexed(image)) {
 			
-			if (scaleImage) {
+			// Indexed images draw about as fast as the frame would copy,
+			// and change often when they do change, so skip the frame
+			frame = null;
+			drawImage(g2);
 			
-				// Scale and adjust image so
-				// the visible portion is maximized
-				int sw = getWidth();
-				int sh = getHeight();
-				int iw = image.getWidth(null);
-				int ih = image.getHeight(null);
-				float sa = sw / (float) sh;
-				float va = visible.width / (float) visible.height;
-				int rx, ry, rw, rh;
-				if (va < sa) {
-					rx = Math.round((sw - sh * va) / 2);
-					ry = 0;
-					rw = Math.round(sh * va);
-					rh = sh;
-				} else {
-					rx = 0;
-					ry = Math.round((sh - sw / va) / 2);
-					rw = sw;
-					rh = Math.round(sw / va);
-				}
-				int dx = rx - rh * visible.x / visible.height;
-				int dy = ry - rw * visible.y / visible.width;
-				int dw = rw * iw / visible.width;
-				int dh = rh * ih / visible.height;
-				g2.drawImage(image, dx, dy, dw, dh, getBackground(), null);
-				
-				// Fill any spaces with the background color 
-				if (dx > 0) {
-					g2.fillRect(0, 0, dx, sh);				
-				}
-				if (dx + dw < sw) {
-					g2.fillRect(dx + dw, 0, sw - dw - dx, sh);
-				}
-				if (dy > 0) {
-					int x = Math.max(0, dx);
-					g2.fillRect(x, 0, Math.min(dw, sw - x), dy);
-				}
-				if (dy + dh < sh) {
-					int x = Math.max(0, dx);
-					g2.fillRect(x, dy + dh, Math.min(dw, sw - x), sh - dy - dh);				
-				}
-
-			} else {
-
-				// Scaling is off, draw simple image				
-				g2.fillRect(0, 0, getWidth(), getHeight());
-				g2.drawImage(image, 0, 0, null);
-				
-			}
+		} else {
+			
+			// Copy the image from the frame, bringing it up to date first
+			paintFrame(g2);
 			
 		}
 		
@@ -298,6 +269,258 @@ public class ImageSelectionComponent extends JPanel {
 
 	}
 	
+	/**
+	 * Copies the frame to the panel, first redrawing the parts of it that
+	 * are out of date. The frame is an accelerated image where possible,
+	 * whose contents may be lost at any time and are then redrawn.
+	 */
+	private void paintFrame(Graphics2D g2) {
+		int sw = getWidth();
+		int sh = getHeight();
+		do {
+			
+			// Replace the frame if it no longer fits the screen or panel
+			if (frame instanceof VolatileImage) {
+				int status = ((VolatileImage) frame).validate(
+						getGraphicsConfiguration());
+				if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+					frame = null;
+				} else if (status == VolatileImage.IMAGE_RESTORED) {
+					staleRegion = new Rectangle(0, 0, sw, sh);
+				}
+			}
+			if (frame == null || frame.getWidth(null) != sw
+					|| frame.getHeight(null) != sh) {
+				frame = createVolatileImage(sw, sh);
+				if (frame == null) {
+					frame = new BufferedImage(sw, sh,
+							BufferedImage.TYPE_INT_RGB);
+				}
+				staleRegion = new Rectangle(0, 0, sw, sh);
+			}
+			
+			// Redraw what changed
+			if (staleRegion != null) {
+				Graphics2D fg = (Graphics2D) frame.getGraphics();
+				fg.clip(staleRegion);
+				drawImage(fg);
+				fg.dispose();
+				staleRegion = null;
+			}
+			
+			g2.drawImage(frame, 0, 0, null);
+			
+		} while (frame instanceof VolatileImage
+				&& ((VolatileImage) frame).contentsLost());
+	}
+	
+	/**
+	 * Draws the image, scaled appropriately, filling the rest of the panel
+	 * with the background color.
+	 */
+	private void drawImage(Graphics2D g2) {
+		
+		g2.setColor(getBackground());
+		if (scaleImage) {
+		
+			// Scale and adjust image so
+			// the visible portion is maximized
+			int sw = getWidth();
+			int sh = getHeight();
+			Rectangle d = getDestination();
+			int dx = d.x;
+			int dy = d.y;
+			int dw = d.width;
+			int dh = d.height;
+			// Indexed images are not blended, which is several times
+			// faster for them, so that their colors can be swapped often
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					isIndexed(image)
+					? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+					: RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2.drawImage(image, dx, dy, dw, dh, getBackground(), null);
+			
+			// Fill any spaces with the background color 
+			if (dx > 0) {
+				g2.fillRect(0, 0, dx, sh);				
+			}
+			if (dx + dw < sw) {
+				g2.fillRect(dx + dw, 0, sw - dw - dx, sh);
+			}
+			if (dy > 0) {
+				int x = Math.max(0, dx);
+				g2.fillRect(x, 0, Math.min(dw, sw - x), dy);
+			}
+			if (dy + dh < sh) {
+				int x = Math.max(0, dx);
+				g2.fillRect(x, dy + dh, Math.min(dw, sw - x), sh - dy - dh);				
+			}
+
+		} else {
+
+			// Scaling is off, draw simple image				
+			g2.fillRect(0, 0, getWidth(), getHeight());
+			g2.drawImage(image, 0, 0, null);
+			
+		}
+		
+	}
+	
+	/**
+	 * Returns true if an image takes its colors from a table.
+	 */
+	private static boolean isIndexed(Image i) {
+		return i instanceof BufferedImage && ((BufferedImage) i)
+				.getColorModel() instanceof IndexColorModel;
+	}
+	
+	/**
+	 * Marks part of the frame, in panel coordinates, to be redrawn from the
+	 * image, and repaints it.
+	 */
+	private void invalidateFrame(Rectangle r) {
+		r = r.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+		if (r.isEmpty()) {
+			return;
+		}
+		staleRegion = (staleRegion == null) ? r : staleRegion.union(r);
+		repaint(r);
+	}
+	
+	/**
+	 * Marks all of the frame to be redrawn from the image, and repaints it.
+	 */
+	private void invalidateFrame() {
+		invalidateFrame(new Rectangle(0, 0, getWidth(), getHeight()));
+	}
+	
+	/**
+	 * Paints the border of a selection at once, copying the rest of the
+	 * panel under it from the frame. Painting the four edges on their own
+	 * keeps the inside of a large selection from being copied too, as a
+	 * single repaint of them would.
+	 */
+	private void paintBorder(Rectangle r) {
+		if (r.width == 0 || r.height == 0) {
+			return;
+		}
+		paintImmediately(r.x, r.y, r.width, 1);
+		paintImmediately(r.x, r.y + r.height - 1, r.width, 1);
+		paintImmediately(r.x, r.y, 1, r.height);
+		paintImmediately(r.x + r.width - 1, r.y, 1, r.height);
+	}
+	
+	/**
+	 * Starts the marching ants, if they are not already marching.
+	 */
+	private void startAnts() {
+		if (marchingAntTask != null) {
+			return;
+		}
+		marchingAntTask = new TimerTask() {
+			public void run() {
+				SwingUtilities.invokeLater(marchAnts);
+			}
+		};
+		marchingAntTimer.scheduleAtFixedRate(marchingAntTask, ANT_DELAY,
+				ANT_DELAY);
+	}
+	
+	/**
+	 * Stops the marching ants until the next selection.
+	 */
+	private void stopAnts() {
+		if (marchingAntTask != null) {
+			marchingAntTask.cancel();
+			marchingAntTask = null;
+		}
+	}
+	
+	/**
+	 * Returns where the image is drawn on the panel.
+	 */
+	private Rectangle getDestination() {
+		int iw = image.getWidth(null);
+		int ih = image.getHeight(null);
+		if (!scaleImage) {
+			return new Rectangle(0, 0, iw, ih);
+		}
+		int sw = getWidth();
+		int sh = getHeight();
+		double sa = sw / (double) sh;
+		double va = visible.getWidth() / visible.getHeight();
+		double rx, ry, rw, rh;
+		if (va < sa) {
+			rx = (sw - sh * va) / 2;
+			ry = 0;
+			rw = sh * va;
+			rh = sh;
+		} else {
+			rx = 0;
+			ry = (sh - sw / va) / 2;
+			rw = sw;
+			rh = sw / va;
+		}
+		
+		// The visible portion may fall between pixels, as while zooming
+		double scale = rw / visible.getWidth();
+		int dx = (int) Math.round(rx - visible.getX() * scale);
+		int dy = (int) Math.round(ry - visible.getY() * scale);
+		return new Rectangle(dx, dy,
+				(int) Math.round(rx + (iw - visible.getX()) * scale) - dx,
+				(int) Math.round(ry + (ih - visible.getY()) * scale) - dy);
+	}
+	
+	/**
+	 * Converts a rectangle on the panel, such as a selection, to pixels of
+	 * the image as it is drawn. The image may be scaled, so the edges of
+	 * the result may fall between pixels.
+	 * 
+	 * @param r a rectangle in panel coordinates
+	 * @return the rectangle in image coordinates, or <code>r</code> if
+	 *         there is no image
+	 */
+	public Rectangle2D toImage(Rectangle r) {
+		if (image == null) {
+			return r;
+		}
+		Rectangle d = getDestination();
+		double sx = image.getWidth(null) / (double) d.width;
+		double sy = image.getHeight(null) / (double) d.height;
+		return new Rectangle2D.Double((r.x - d.x) * sx, (r.y - d.y) * sy,
+				r.width * sx, r.height * sy);
+	}
+	
+	/**
+	 * Repaints the part of the panel that shows a rectangle of the image,
+	 * as when the image has been drawn into.
+	 * 
+	 * @param r a rectangle in image coordinates
+	 */
+	public void repaintImage(Rectangle r) {
+		if (image == null) {
+			return;
+		}
+		
+		// Include the neighbors that scaling blends with
+		Rectangle d = getDestination();
+		double sx = d.width / (double) image.getWidth(null);
+		double sy = d.height / (double) image.getHeight(null);
+		int x0 = (int) Math.floor(d.x + (r.x - 1) * sx);
+		int y0 = (int) Math.floor(d.y + (r.y - 1) * sy);
+		int x1 = (int) Math.ceil(d.x + (r.x + r.width + 1) * sx);
+		int y1 = (int) Math.ceil(d.y + (r.y + r.height + 1) * sy);
+		invalidateFrame(new Rectangle(x0, y0, x1 - x0, y1 - y0));
+	}
+	
+	/**
+	 * Repaints all of the image, as when it has been drawn into
+	 * throughout.
+	 */
+	public void repaintImage() {
+		invalidateFrame();
+	}
+	
 	/**
 	 * Clears any current selection and removes the selection highlight.
 	 */
@@ -308,6 +531,7 @@ public class ImageSelectionComponent extends JPanel {
 		}
 		origin = null;
 		box = null;
+		stopAnts();
 	}
 	
 	/**
@@ -347,13 +571,16 @@ public class ImageSelectionComponent extends JPanel {
 	 * @throw NullPointerException if <code>visible</code> is null, but
 	 *           <code>i</code> is not 
 	 */
-	public void setImage(Image i, Rectangle visible) {
+	public void setImage(Image i, Rectangle2D visible) {
 		if (i != null && visible == null) {
 			throw new NullPointerException();
 		}
 		image = i;
 		this.visible = visible;
-		repaint();
+		if (i == null) {
+			frame = null;
+		}
+		invalidateFrame();
 	}
 	
 	/**
@@ -364,18 +591,18 @@ public class ImageSelectionComponent extends JPanel {
 	 * @throw NullPointerException if <code>visible</code> is null, but
 	 *           <code>getImage()</code> is not 
 	 */
-	public void setVisible(Rectangle visible) {
+	public void setVisible(Rectangle2D visible) {
 		if (image != null && visible == null) {
 			throw new NullPointerException();
 		}
 		this.visible = visible;
-		repaint();
+		invalidateFrame();
 	}
 	
 	/**
 	 * Returns the current image.
 	 * 
-	 * @return the image last set with {@link setImage(Image, Rectangle)}
+	 * @return the image last set with {@link setImage(Image, Rectangle2D)}
 	 */
 	public Image getImage() {
 		return image;
@@ -384,9 +611,9 @@ public class ImageSelectionComponent extends JPanel {
 	/**
 	 * Returns the visibile portion of the current image.
 	 * 
-	 * @return the rectangle last set with {@link setImage(Image, Rectangle)}
+	 * @return the rectangle last set with {@link setImage(Image, Rectangle2D)}
 	 */
-	public Rectangle getVisible() {
+	public Rectangle2D getVisible() {
 		return visible;
 	}
 	
@@ -407,6 +634,7 @@ public class ImageSelectionComponent extends JPanel {
 	 */	
 	public void setScaling(boolean scaling) {
 		this.scaleImage = scaling;
+		invalidateFrame();
 	}
 	
 	/*
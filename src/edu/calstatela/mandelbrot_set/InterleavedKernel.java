@@ -0,0 +1,214 @@
+/*
+ * InterleavedKernel.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+/**
+ * A kernel that iterates points two at a time without vector instructions.
+ * Each iteration of one orbit waits on the multiplications of the one
+ * before, leaving the processor mostly idle; interleaving a second,
+ * independent orbit fills those gaps.
+ * <p>
+ * After the first few iterations, escape is only tested every
+ * {@link #UNROLL} iterations. Each block of iterations starts from a
+ * checkpoint, and if either orbit escaped within the block, both are rolled
+ * back to it and stepped one iteration at a time until one escapes. The
+ * other is finished by {@link RenderingDaemon#iterate(double, double,
+ * double, double, int, int, boolean, double[])}. Every step performs the
+ * same operations as that loop, so the counts are identical.
+ *
+ * @author Matthew Nelson
+ */
+class InterleavedKernel implements Kernel {
+
+	/**
+	 * The number of iterations between escape tests. Once |z| &gt;= 2 and
+	 * |c| &lt; 2, |z| only grows, so an orbit that escaped within a block is
+	 * still outside at its end.
+	 */
+	private static final int UNROLL = 8;
+
+	/**
+	 * The number of iterations stepped one at a time before the first
+	 * block.
+	 */
+	private static final int HEAD = 16;
+
+	/**
+	 * The square of the largest |c| iterated in blocks. Rounding could let
+	 * an orbit on the edge of the circle dip back inside when |c| is close
+	 * to 2, so those points are tested every iteration.
+	 */
+	private static final double BLOCK_RADIUS_SQUARED = 1.9 * 1.9;
+
+	public void iterate(double[] cx, double[] cy, int length, int limit,
+			boolean periodicity, int[] counts, double[] zx, double[] zy) {
+
+		final double[] orbit = new double[2];
+		int i = 0;
+		for (; i + 1 < length; i += 2) {
+			iteratePair(cx, cy, i, limit, periodicity, counts, zx, zy, orbit);
+		}
+		if (i < length) {
+			finish(cx, cy, i, cx[i], cy[i], 0, false, limit, periodicity,
+					counts, zx, zy, orbit);
+		}
+
+	}
+
+	/**
+	 * Iterates the points <code>i</code> and <code>i + 1</code>.
+	 */
+	private static void iteratePair(double[] cx, double[] cy, int i,
+			int limit, boolean periodicity, int[] counts, double[] zx,
+			double[] zy, double[] orbit) {
+
+		final double ax = cx[i];
+		final double ay = cy[i];
+		final double bx = cx[i + 1];
+		final double by = cy[i + 1];
+
+		// Both orbits and their squares, after n iterations
+		double azx = ax;
+		double azy = ay;
+		double azx2 = azx * azx;
+		double azy2 = azy * azy;
+		double bzx = bx;
+		double bzy = by;
+		double bzx2 = bzx * bzx;
+		double bzy2 = bzy * bzy;
+		int n = 0;
+		boolean aCycled = false;
+		boolean bCycled = false;
+
+		// Most points outside the set escape within a few iterations, so
+		// step those one at a time instead of rolling back a block
+		final int head = Math.min(limit, HEAD);
+		while (n < head && azx2 + azy2 < 4 && bzx2 + bzy2 < 4) {
+			azy = 2 * azx * azy + ay;
+			bzy = 2 * bzx * bzy + by;
+			azx = azx2 - azy2 + ax;
+			bzx = bzx2 - bzy2 + bx;
+			azx2 = azx * azx;
+			bzx2 = bzx * bzx;
+			azy2 = azy * azy;
+			bzy2 = bzy * bzy;
+			++n;
+		}
+
+		if (ax * ax + ay * ay < BLOCK_RADIUS_SQUARED
+				&& bx * bx + by * by < BLOCK_RADIUS_SQUARED
+				&& azx2 + azy2 < 4 && bzx2 + bzy2 < 4) {
+
+			// Saved orbit points, and the schedule for replacing them
+			double apx = azx;
+			double apy = azy;
+			double bpx = bzx;
+			double bpy = bzy;
+			int power = 1;
+			int lambda = 0;
+
+			while (n + UNROLL <= limit) {
+
+				// Checkpoint
+				final double sax = azx;
+				final double say = azy;
+				final double sbx = bzx;
+				final double sby = bzy;
+
+				for (int k = 0; k < UNROLL; ++k) {
+					azy = 2 * azx * azy + ay;
+					bzy = 2 * bzx * bzy + by;
+					azx = azx2 - azy2 + ax;
+					bzx = bzx2 - bzy2 + bx;
+					azx2 = azx * azx;
+					bzx2 = bzx * bzx;
+					azy2 = azy * azy;
+					bzy2 = bzy * bzy;
+				}
+
+				// Either escaped, so roll both back. NaN from overflow also
+				// fails the test.
+				if (!(azx2 + azy2 < 4) || !(bzx2 + bzy2 < 4)) {
+					azx = sax;
+					azy = say;
+					azx2 = azx * azx;
+					azy2 = azy * azy;
+					bzx = sbx;
+					bzy = sby;
+					bzx2 = bzx * bzx;
+					bzy2 = bzy * bzy;
+					break;
+				}
+				n += UNROLL;
+
+				// A repeated value means the orbit is periodic. Found later
+				// than one iteration at a time would, it still proves the
+				// point is in the set.
+				if (periodicity) {
+					aCycled = azx == apx && azy == apy;
+					bCycled = bzx == bpx && bzy == bpy;
+					if (aCycled || bCycled) {
+						break;
+					}
+					if (++lambda == power) {
+						apx = azx;
+						apy = azy;
+						bpx = bzx;
+						bpy = bzy;
+						power <<= 1;
+						lambda = 0;
+					}
+				}
+
+			}
+
+		}
+
+		// Step both one iteration at a time until either escapes
+		if (!aCycled && !bCycled) {
+			while (n < limit && azx2 + azy2 < 4 && bzx2 + bzy2 < 4) {
+				azy = 2 * azx * azy + ay;
+				bzy = 2 * bzx * bzy + by;
+				azx = azx2 - azy2 + ax;
+				bzx = bzx2 - bzy2 + bx;
+				azx2 = azx * azx;
+				bzx2 = bzx * bzx;
+				azy2 = azy * azy;
+				bzy2 = bzy * bzy;
+				++n;
+			}
+		}
+
+		finish(cx, cy, i, azx, azy, n, aCycled, limit, periodicity, counts,
+				zx, zy, orbit);
+		finish(cx, cy, i + 1, bzx, bzy, n, bCycled, limit, periodicity,
+				counts, zx, zy, orbit);
+
+	}
+
+	/**
+	 * Finishes iterating point <code>i</code> one iteration at a time from
+	 * z = (x, y) after <code>n</code> iterations, and stores its results.
+	 */
+	private static void finish(double[] cx, double[] cy, int i, double x,
+			double y, int n, boolean cycled, int limit, boolean periodicity,
+			int[] counts, double[] zx, double[] zy, double[] orbit) {
+		if (cycled) {
+			counts[i] = limit;
+			zx[i] = Double.NaN;
+			zy[i] = Double.NaN;
+		} else {
+			counts[i] = RenderingDaemon.iterate(cx[i], cy[i], x, y, n, limit,
+					periodicity, orbit);
+			zx[i] = orbit[0];
+			zy[i] = orbit[1];
+		}
+	}
+
+}
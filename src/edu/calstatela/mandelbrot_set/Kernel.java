@@ -0,0 +1,39 @@
+/*
+ * Kernel.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+/**
+ * Iterates many points at once. Implementations must give every point
+ * exactly the result of {@link RenderingDaemon#iterate(double, double,
+ * double, double, int, int, boolean, double[])} starting from z = c, so
+ * that the choice of kernel never changes an image.
+ *
+ * @author Matthew Nelson
+ */
+interface Kernel {
+
+	/**
+	 * Iterates the points c = (cx[i], cy[i]) for i &lt; length.
+	 *
+	 * @param cx the real parts of the points
+	 * @param cy the imaginary parts of the points
+	 * @param length the number of points
+	 * @param limit the maximum number of iterations
+	 * @param periodicity whether to check for cycles
+	 * @param counts receives the number of iterations before each point
+	 *          escaped, or <code>limit</code> if it never did
+	 * @param zx receives the real part of the final z of each point that
+	 *          reached the limit, or NaN if a cycle was found; entries of
+	 *          points that escaped are unspecified
+	 * @param zy receives the imaginary part likewise
+	 */
+	public void iterate(double[] cx, double[] cy, int length, int limit,
+			boolean periodicity, int[] counts, double[] zx, double[] zy);
+
+}
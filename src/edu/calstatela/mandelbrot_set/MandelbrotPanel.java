@@ -12,7 +12,11 @@ package edu.calstatela.mandelbrot_set;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Rectangle2D;
 import javax.swing.*;
+import javax.swing.event.MouseInputListener;
+import java.io.File;
+import java.math.BigDecimal;
 import java.util.Stack;
 
 /**
@@ -43,8 +47,10 @@ public class MandelbrotPanel extends JPanel {
 		JFrame frame = new JFrame(Messages.getString(
 				"MandelbrotPanel.frame_title")); //$NON-NLS-1$
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.getContentPane().add(
-				new MandelbrotPanel(true, 5000), BorderLayout.CENTER);
+		MandelbrotPanel panel = new MandelbrotPanel(true, 5000);
+		panel.setDiskCache(new File(System.getProperty("user.home"),
+				DISK_CACHE_DIRECTORY), DEFAULT_DISK_CACHE_BUDGET);
+		frame.getContentPane().add(panel, BorderLayout.CENTER);
 		frame.pack();
 		frame.setLocationRelativeTo(null);
 		frame.setVisible(true);
@@ -67,15 +73,139 @@ public class MandelbrotPanel extends JPanel {
 	
 	private Stack frameStack = new Stack();
 	private Scene discardedFrame = null;
+	private final FrameCache cache = new FrameCache(DEFAULT_CACHE_BUDGET);
+	private final TileCache tiles = new TileCache(DEFAULT_TILE_BUDGET);
 	private boolean cancelable = false;
+	private Palette palette = Palette.LINEAR;
+	
+	/*
+	 * The following variables track color cycling: whether it is on, how
+	 * far the colors have turned, and the timer that turns them.
+	 */
+	
+	private boolean cycling = false;
+	private int cycle = 0;
+	private final Timer cycleTimer;
 	
 	private Rectangle lastKnownBounds = getBounds();
+	
+	/*
+	 * The following variables track a pan in progress: where the drag
+	 * started, and the visible rectangle of the image at that time.
+	 */
+	
+	private Point panOrigin = null;
+	private Rectangle2D panVisible = null;
+	
+	/*
+	 * The following variables track a wheel zoom in progress: the frame it
+	 * started from, and the view it has reached, in that frame's image
+	 * pixels; the preview being rendered and the view it shows; and the
+	 * scene whose image is on screen and the view that one shows.
+	 */
+	
+	private Scene wheelBase = null;
+	private Rectangle2D wheelView = null;
+	private Scene wheelPreview = null;
+	private Rectangle2D wheelPreviewView = null;
+	private long wheelPreviewStart = 0;
+	private Scene wheelShown = null;
+	private Rectangle2D wheelShownView = null;
+	private final Timer wheelTimer;
+	
+	/*
+	 * The following variables collect the parts of the image being
+	 * rendered that changed, to be repainted together.
+	 */
+	
+	private Rectangle dirtyRegion = null;
+	private final Timer repaintTimer;
+	
+	/**
+	 * The pixels a millisecond that previews have been rendered at lately.
+	 */
+	private double previewRate = INITIAL_PREVIEW_RATE;
 
 	/**
 	 * The background rendering daemon thread.
 	 */
 	private final RenderingDaemon renderer;
 	
+	/**
+	 * The highest iteration limit the user may raise a view to. Palettes
+	 * keep a table with an entry for every count, so this bounds its size.
+	 */
+	private static final int MAXIMUM_LIMIT = 1 << 24;
+	
+	/**
+	 * The smallest pixel size, in world units, the user may zoom in from.
+	 */
+	private static final double MINIMUM_PIXEL_SIZE = 1e-290;
+	
+	/**
+	 * The fraction of the view an arrow key pans by.
+	 */
+	private static final int PAN_FRACTION = 8;
+	
+	/**
+	 * The factor a notch of the mouse wheel zooms the view by.
+	 */
+	private static final double WHEEL_ZOOM = 1.25;
+	
+	/**
+	 * The milliseconds a preview should take to render while zooming with
+	 * the wheel, for about 40 frames a second. Previews are made smaller or
+	 * larger to fit.
+	 */
+	private static final int PREVIEW_BUDGET = 25;
+	
+	/**
+	 * The pixels a millisecond previews are assumed to render at until one
+	 * has been timed.
+	 */
+	private static final double INITIAL_PREVIEW_RATE = 1000;
+	
+	/**
+	 * The fewest pixels across a preview.
+	 */
+	private static final int MINIMUM_PREVIEW_SIZE = 16;
+	
+	/**
+	 * The milliseconds without wheel movement after which the view is
+	 * rendered in full.
+	 */
+	private static final int WHEEL_IDLE_DELAY = 250;
+	
+	/**
+	 * The fewest milliseconds between repaints of an image being rendered.
+	 */
+	private static final int REPAINT_INTERVAL = 50;
+	
+	/**
+	 * The milliseconds between steps of color cycling, for about 60 frames
+	 * a second.
+	 */
+	private static final int CYCLE_INTERVAL = 1000 / 60;
+	
+	/**
+	 * The bytes of images, counts, and orbits kept for frames off screen,
+	 * unless changed with {@link #setCacheBudget(long)}.
+	 */
+	private static final long DEFAULT_CACHE_BUDGET = 128L << 20;
+	
+	/**
+	 * The bytes of tiles kept for scenes to share, unless changed with
+	 * {@link #setTileCacheBudget(long)}.
+	 */
+	private static final long DEFAULT_TILE_BUDGET = 64L << 20;
+	
+	/**
+	 * The directory in the user's home where the demo keeps rendered
+	 * views between runs, and the bytes it may use.
+	 */
+	private static final String DISK_CACHE_DIRECTORY = ".mandelbrot_set";
+	private static final long DEFAULT_DISK_CACHE_BUDGET = 256L << 20;
+	
 	/**
 	 * Creates a new <code>MandelbrotPanel</code>.
 	 * 
@@ -85,6 +215,23 @@ public class MandelbrotPanel extends JPanel {
 	 *          a given point is in the Mandelbrot set
 	 */
 	public MandelbrotPanel(boolean scaling, int limit) {
+		this(scaling, limit, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new <code>MandelbrotPanel</code> that renders with a given
+	 * number of threads. Passing one less than the number of processors
+	 * leaves a processor free for the AWT Event Dispatch thread.
+	 * 
+	 * @param scaling true if the previously rendered image should scale
+	 *          while a new image is rendered
+	 * @param limit the maximum number of iterations before concluding that
+	 *          a given point is in the Mandelbrot set
+	 * @param threads the number of rendering threads
+	 * @throws IllegalArgumentException if <code>threads</code> is
+	 *           nonpositive
+	 */
+	public MandelbrotPanel(boolean scaling, int limit, int threads) {
 		
 		setLayout(new BorderLayout());
 		setOpaque(true);
@@ -122,32 +269,83 @@ public class MandelbrotPanel extends JPanel {
 		blackPanel.setMaximumSize(blackPanel.getPreferredSize());
 		blackPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
 
-		// Image panel with the progress bar
+		// Image panel with the progress bar at the bottom, clear of the
+		// image as it is drawn
 		imageComponent = new ImageSelectionComponent(scaling);
 		imageComponent.setLayout(
 				new BoxLayout(imageComponent, BoxLayout.Y_AXIS));
 		imageComponent.add(Box.createVerticalGlue());
 		imageComponent.add(blackPanel);
-		imageComponent.add(Box.createVerticalGlue());
+		imageComponent.add(Box.createVerticalStrut(10));
 		imageComponent.addMouseListener(zoomOutListener);
 		imageComponent.addSelectionListener(zoomInListener);
 		imageComponent.addKeyListener(keyListener);
+		imageComponent.addMouseListener(panListener);
+		imageComponent.addMouseMotionListener(panListener);
+		imageComponent.addMouseWheelListener(wheelListener);
+		
+		// Render the zoomed view in full once the wheel stops
+		wheelTimer = new Timer(WHEEL_IDLE_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				doWheelRefine();
+			}
+		});
+		wheelTimer.setRepeats(false);
+		
+		// Show the pixels of the image being rendered a few times a second
+		repaintTimer = new Timer(REPAINT_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (dirtyRegion != null) {
+					imageComponent.repaintImage(dirtyRegion);
+					dirtyRegion = null;
+				}
+			}
+		});
+		repaintTimer.setRepeats(false);
+		
+		// Turn the colors while cycling
+		cycleTimer = new Timer(CYCLE_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				doCycle();
+			}
+		});
 
 		// This JPanel		
 		add(imageComponent, BorderLayout.CENTER);
 		
 		// Start up renderer
-		renderer = new RenderingDaemon(renderingListener, true);
+		renderer = new RenderingDaemon(renderingListener, true, threads);
 		// Slightly incrase GUI responsiveness by decreasing daemon priority
 		renderer.setPriority(Thread.MIN_PRIORITY);
+		renderer.setTileCache(tiles);
 		renderer.start();
 
-		// Push initial view onto stack
-		frameStack.push(new Scene(1, 1, limit, 2, -2, -2, 2));
+		// Push initial view onto stack, on the tile grid if the image can be
+		// scaled to fit
+		frameStack.push(createScene(scaling, 1, 1, limit, 2, -2, -2, 2));
 		doRenderCheck();
 		
 	}
 	
+	/**
+	 * Creates a scene with the rendering options used by this panel.
+	 * 
+	 * @param aligned true to put the scene on the tile grid
+	 */
+	private static Scene createScene(boolean aligned, int hRes, int vRes,
+			int limit, double lookTop, double lookBottom, double lookLeft,
+			double lookRight) {
+		Scene scene = aligned
+				? Scene.createAligned(hRes, vRes, limit,
+						new BigDecimal(lookTop), new BigDecimal(lookBottom),
+						new BigDecimal(lookLeft), new BigDecimal(lookRight))
+				: new Scene(hRes, vRes, limit,
+						lookTop, lookBottom, lookLeft, lookRight);
+		// Keep orbits, so the limit can be raised cheaply
+		scene.setResumable(true);
+		return scene;
+	}
+	
 	/**
 	 * Listens for signals from rendering thread.
 	 */
@@ -156,19 +354,66 @@ public class MandelbrotPanel extends JPanel {
 
 		public void renderingProgress(RenderingEvent e) {
 			if (e.getTask() == frameStack.peek()) {
-				if (e.isComplete()){
+				if (e.getFailure() != null) {
+					doRenderFailed(e.getFailure());
+				} else if (e.isComplete()){
 					// Display completed image
 					doRenderCheck();			
 				} else {
 					//  Update progress bar
 					progressBar.setValue(
 							Math.round(e.getCompletedRatio() * 100));
+					
+					// Show any intermediate image in place of the old one
+					if (e.getPreview() != null) {
+						doShowProgress(e);
+					}
+				}
+			} else if (e.getTask() == wheelPreview && e.isComplete()) {
+				if (e.getFailure() != null) {
+					// Keep showing the last preview until the wheel stops
+					wheelPreview = null;
+				} else {
+					doPreviewComplete();
 				}
 			}
 		}
 		
 	};
 
+	/**
+	 * Shows the image being rendered, repainting what has changed at most
+	 * every {@link #REPAINT_INTERVAL} milliseconds. A progressive scene
+	 * replaces the old image once its first pass is done, so that it does
+	 * not show mostly black; others replace it with their first tile.
+	 */
+	private void doShowProgress(RenderingEvent e) {
+		
+		Image preview = e.getPreview();
+		Rectangle[] dirty = e.getDirtyRegions();
+		if (imageComponent.getImage() != preview) {
+			if (dirty == null || !e.getTask().isProgressive()) {
+				dirtyRegion = null;
+				imageComponent.setImage(preview, getVisible(e.getTask()));
+			}
+			return;
+		}
+		
+		// Collect the changes until the next repaint
+		if (dirty == null) {
+			dirty = new Rectangle[] {new Rectangle(0, 0,
+					preview.getWidth(null), preview.getHeight(null))};
+		}
+		for (int i = 0; i < dirty.length; ++i) {
+			dirtyRegion = (dirtyRegion == null)
+					? new Rectangle(dirty[i]) : dirtyRegion.union(dirty[i]);
+		}
+		if (!repaintTimer.isRunning()) {
+			repaintTimer.start();
+		}
+		
+	}
+	
 	/**
 	 * Listens for signals from selection panel.
 	 */
@@ -195,7 +440,8 @@ public class MandelbrotPanel extends JPanel {
 			Scene frame = (Scene) frameStack.peek();
 
 			if (e.getButton() != MouseEvent.BUTTON3
-					|| frame.getImage() == null) {
+					|| frame.getImage() == null
+					|| wheelBase != null || imageComponent.isLocked()) {
 				return;
 			}
 
@@ -205,7 +451,75 @@ public class MandelbrotPanel extends JPanel {
 	};
 	
 	/**
-	 * Listens for key events, causing view to zoom out or reset.
+	 * Listens for middle-button drags in image, shifting the image with the
+	 * mouse and then panning the view by as much.
+	 */
+	private final MouseInputListener panListener = new MouseInputListener() {
+		public void mouseEntered(MouseEvent e) {}
+		public void mouseExited(MouseEvent e) {}
+		public void mouseClicked(MouseEvent e) {}
+		public void mouseMoved(MouseEvent e) {}
+		
+		public void mousePressed(MouseEvent e) {
+			Scene frame = (Scene) frameStack.peek();
+			
+			if (e.getButton() != MouseEvent.BUTTON2
+					|| frame.getImage() == null
+					|| imageComponent.isLocked()) {
+				return;
+			}
+			
+			panOrigin = e.getPoint();
+			panVisible = imageComponent.getVisible();
+		}
+		
+		public void mouseDragged(MouseEvent e) {
+			if (panOrigin == null) {
+				return;
+			}
+			
+			// Show the image moved with the mouse
+			Point d = getPanDistance(e);
+			imageComponent.setVisible(translate(panVisible, d.x, d.y));
+		}
+		
+		public void mouseReleased(MouseEvent e) {
+			if (panOrigin == null || e.getButton() != MouseEvent.BUTTON2) {
+				return;
+			}
+			
+			Point d = getPanDistance(e);
+			imageComponent.setVisible(panVisible);
+			panOrigin = null;
+			panVisible = null;
+			doPan(d.x, d.y);
+		}
+		
+		/**
+		 * Returns how many image pixels the mouse has moved the view.
+		 */
+		private Point getPanDistance(MouseEvent e) {
+			Rectangle2D d = imageComponent.toImage(new Rectangle(0, 0,
+					panOrigin.x - e.getX(), panOrigin.y - e.getY()));
+			return new Point((int) Math.round(d.getWidth()),
+					(int) Math.round(d.getHeight()));
+		}
+		
+	};
+	
+	/**
+	 * Listens for wheel and trackpad scrolling in image, zooming the view
+	 * in or out about the mouse.
+	 */
+	private final MouseWheelListener wheelListener = new MouseWheelListener() {
+		public void mouseWheelMoved(MouseWheelEvent e) {
+			doWheelZoom(e.getPoint(), e.getPreciseWheelRotation());
+		}
+	};
+	
+	/**
+	 * Listens for key events, causing view to zoom out, reset, change
+	 * colors, raise the iteration limit, or pan.
 	 */
 	private final KeyListener keyListener = new KeyListener() {
 		public void keyPressed(KeyEvent e) {}
@@ -214,7 +528,8 @@ public class MandelbrotPanel extends JPanel {
 		public void keyReleased(KeyEvent e) {
 			Scene frame = (Scene) frameStack.peek();
 
-			if (frame.getImage() == null) {
+			if (frame.getImage() == null
+					|| wheelBase != null || imageComponent.isLocked()) {
 				return;
 			}
 			
@@ -231,6 +546,36 @@ public class MandelbrotPanel extends JPanel {
 					doReset();
 					break;
 				
+				case KeyEvent.VK_C:    // Colors
+					doRecolor();
+					break;
+				
+				case KeyEvent.VK_A:    // Animate colors
+					setColorCycling(!cycling);
+					break;
+				
+				case KeyEvent.VK_EQUALS:
+				case KeyEvent.VK_PLUS:
+				case KeyEvent.VK_ADD:
+					doRaiseLimit();
+					break;
+				
+				case KeyEvent.VK_LEFT:
+					doPan(-getPanStep(), 0);
+					break;
+				
+				case KeyEvent.VK_RIGHT:
+					doPan(getPanStep(), 0);
+					break;
+				
+				case KeyEvent.VK_UP:
+					doPan(0, -getPanStep());
+					break;
+				
+				case KeyEvent.VK_DOWN:
+					doPan(0, getPanStep());
+					break;
+				
 			}
 
 			
@@ -256,37 +601,283 @@ public class MandelbrotPanel extends JPanel {
 	 */
 	private void doZoomIn(Rectangle s) {
 		Scene task = (Scene) frameStack.peek();
-			
-		// Compute new view
-		double wt = task.getSeeTop();
-		double wb = task.getSeeBottom();
-		double wl = task.getSeeLeft();
-		double wr = task.getSeeRight();
-		double wdx = wr - wl;
-		double wdy = wt - wb;
-		int sdy = task.getVerticalResolution();
-		int sdx = task.getHorizontalResolution();
-		int limit = task.getLimit();
+		
+		// Pixel offsets are doubles, so stop well before they underflow
+		if (task.getPixelSize() < MINIMUM_PIXEL_SIZE) {
+			imageComponent.clearSelection();
+			return;
+		}
+		
+		// Compute new view, exactly, from the pixels selected on the image
+		Rectangle2D r = imageComponent.toImage(s);
 		discardedFrame = null;
-		frameStack.push(new Scene(sdx, sdy, limit,
-				wt - s.y * wdy / sdy,
-				wt - (s.y + s.height) * wdy / sdy,
-				wl + s.x * wdx / sdx,
-				wl + (s.x + s.width) * wdx / sdx));
+		frameStack.push(task.createDetail(r.getX(), r.getY(), r.getWidth(),
+				r.getHeight()));
 			
 		// Zoom in
 		cancelable = true;
 		imageComponent.clearSelection();
-		imageComponent.setVisible(s);
+		imageComponent.setVisible(r);
 		progressLabel.setText(Messages.getString(
 				"MandelbrotPanel.zooming_in_message")); //$NON-NLS-1$
 		doRenderCheck();
 			
-		// Allow GC on unused image if the VM runs out of memory
-		task.allowImageGC();
+		// Keep the old frame's image while the cache has room
+		cache.put(task);
 
 	}
 
+	/**
+	 * Creates a new stack frame of the same view with twice the iteration
+	 * limit. Only the pixels that reached the old limit are iterated
+	 * further. This action is cancelable by the user, and zooming out
+	 * returns to the old limit.
+	 */
+	private void doRaiseLimit() {
+		Scene task = (Scene) frameStack.peek();
+		
+		if (task.getLimit() > MAXIMUM_LIMIT / 2) {
+			return;
+		}
+		
+		discardedFrame = null;
+		frameStack.push(task.withLimit(task.getLimit() * 2));
+		
+		// Raise limit
+		cancelable = true;
+		progressLabel.setText(Messages.getString(
+				"MandelbrotPanel.raising_limit_message")); //$NON-NLS-1$
+		doRenderCheck();
+		
+		// Keep the old frame's image while the cache has room
+		cache.put(task);
+		
+	}
+
+	/**
+	 * Replaces the frame with one whose view is moved by a number of image
+	 * pixels, showing the old image moved by as much until the new one is
+	 * ready. On the tile grid, only the tiles that come into view are
+	 * rendered. Panning is not cancelable, and zooming out returns to the
+	 * view the frame was zoomed in from.
+	 * 
+	 * @param dx the pixels to move rightward, or leftward if negative
+	 * @param dy the pixels to move downward, or upward if negative
+	 */
+	private void doPan(int dx, int dy) {
+		Scene task = (Scene) frameStack.peek();
+		
+		if ((dx == 0 && dy == 0) || imageComponent.isLocked()) {
+			return;
+		}
+		
+		discardedFrame = null;
+		frameStack.set(frameStack.size() - 1, task.createPanned(dx, dy));
+		
+		// Pan
+		cancelable = false;
+		imageComponent.setVisible(
+				translate(imageComponent.getVisible(), dx, dy));
+		progressLabel.setText(Messages.getString(
+				"MandelbrotPanel.panning_message")); //$NON-NLS-1$
+		doRenderCheck();
+		
+		// Keep the old frame's image while the cache has room
+		cache.put(task);
+		
+	}
+	
+	/**
+	 * Returns the image pixels an arrow key pans by.
+	 */
+	private int getPanStep() {
+		Rectangle2D visible = imageComponent.getVisible();
+		return Math.max(1, (int) (Math.min(visible.getWidth(),
+				visible.getHeight()) / PAN_FRACTION));
+	}
+	
+	/**
+	 * Returns a copy of a rectangle moved by an offset.
+	 */
+	private static Rectangle2D translate(Rectangle2D r, double dx,
+			double dy) {
+		return new Rectangle2D.Double(r.getX() + dx, r.getY() + dy,
+				r.getWidth(), r.getHeight());
+	}
+	
+	/**
+	 * Zooms the view about a point on the panel, showing the image on
+	 * screen scaled at once, and a preview of the new view as soon as one
+	 * can be rendered. Previews are rendered at as many pixels as the
+	 * renderer has lately managed in {@link #PREVIEW_BUDGET} milliseconds,
+	 * so that they keep up with the wheel. Once the wheel stops, the view is
+	 * rendered in full as a new frame.
+	 * 
+	 * @param p the point to zoom about, in panel coordinates
+	 * @param notches the notches the wheel moved, negative to zoom in
+	 */
+	private void doWheelZoom(Point p, double notches) {
+		
+		// Start from the frame on screen
+		if (wheelBase == null) {
+			Scene task = (Scene) frameStack.peek();
+			if (task.getImage() == null || imageComponent.isLocked()) {
+				return;
+			}
+			wheelBase = task;
+			wheelView = getVisible(task);
+			wheelShown = task;
+			wheelShownView = wheelView;
+			imageComponent.clearSelection();
+			imageComponent.setLocked(true);
+		}
+		
+		// Keep the point under the mouse where it is. The shown image
+		// shows the view, so the point is as far across one as the other.
+		Rectangle2D shown = imageComponent.getVisible();
+		Rectangle2D q = imageComponent.toImage(new Rectangle(p.x, p.y, 0, 0));
+		double fx = (q.getX() - shown.getX()) / shown.getWidth();
+		double fy = (q.getY() - shown.getY()) / shown.getHeight();
+		double zoom = Math.pow(WHEEL_ZOOM, notches);
+		double w = wheelView.getWidth() * zoom;
+		double h = wheelView.getHeight() * zoom;
+		
+		// Pixel offsets are doubles, so stop well before they underflow
+		if (zoom < 1 && wheelBase.getPixelSize() * w
+				/ getVisible(wheelBase).getWidth() < MINIMUM_PIXEL_SIZE) {
+			return;
+		}
+		
+		wheelView = new Rectangle2D.Double(
+				wheelView.getX() + fx * (wheelView.getWidth() - w),
+				wheelView.getY() + fy * (wheelView.getHeight() - h), w, h);
+		imageComponent.setVisible(getShownView());
+		if (wheelPreview == null && imageComponent.isScaling()) {
+			doPreview();
+		}
+		wheelTimer.restart();
+		
+	}
+	
+	/**
+	 * Starts rendering a preview of the view the wheel has reached, as large
+	 * as can be rendered in the time budget.
+	 */
+	private void doPreview() {
+		
+		int fw = Math.max(1, getWidth());
+		int fh = Math.max(1, getHeight());
+		double scale = Math.min(1, Math.sqrt(
+				previewRate * PREVIEW_BUDGET / ((double) fw * fh)));
+		Scene preview = wheelBase.createDetail(wheelView.getX(),
+				wheelView.getY(), wheelView.getWidth(), wheelView.getHeight())
+				.withResolution(
+						Math.max(MINIMUM_PREVIEW_SIZE,
+								(int) Math.round(fw * scale)),
+						Math.max(MINIMUM_PREVIEW_SIZE,
+								(int) Math.round(fh * scale)));
+		
+		// Previews are seen for a moment, so skip the extras
+		preview.setProgressive(false);
+		preview.setResumable(false);
+		preview.setAntialiasing(1);
+		preview.setPersistent(false);
+		
+		wheelPreview = preview;
+		wheelPreviewView = wheelView;
+		wheelPreviewStart = System.nanoTime();
+		renderer.beginRendering(preview);
+		
+	}
+	
+	/**
+	 * Shows a finished preview, adjusts the size of the next one to how
+	 * fast this one rendered, and starts the next one if the wheel has moved
+	 * since.
+	 */
+	private void doPreviewComplete() {
+		
+		// Only count the pixels iterated, since the next preview may find
+		// none of its tiles cached
+		double elapsed = Math.max(1, (System.nanoTime() - wheelPreviewStart)
+				/ 1e6);
+		double pixels = (double) wheelPreview.getHorizontalResolution()
+				* wheelPreview.getVerticalResolution()
+				- wheelPreview.getReusedPixels();
+		if (pixels >= MINIMUM_PREVIEW_SIZE * MINIMUM_PREVIEW_SIZE) {
+			previewRate = (previewRate + pixels / elapsed) / 2;
+		}
+		
+		wheelShown = wheelPreview;
+		wheelShownView = wheelPreviewView;
+		wheelPreview = null;
+		imageComponent.setImage(wheelShown.getImage(), getShownView());
+		
+		if (!wheelView.equals(wheelShownView)) {
+			doPreview();
+		}
+		
+	}
+	
+	/**
+	 * Returns the view the wheel has reached in pixels of the image on
+	 * screen.
+	 */
+	private Rectangle2D getShownView() {
+		Rectangle2D look = getVisible(wheelShown);
+		double scale = look.getWidth() / wheelShownView.getWidth();
+		return new Rectangle2D.Double(
+				look.getX() + (wheelView.getX() - wheelShownView.getX())
+						* scale,
+				look.getY() + (wheelView.getY() - wheelShownView.getY())
+						* scale,
+				wheelView.getWidth() * scale, wheelView.getHeight() * scale);
+	}
+	
+	/**
+	 * Ends a wheel zoom, pushing a frame of the view it reached. Zooming
+	 * out returns to the frame it started from, and the new frame is
+	 * cancelable by the user.
+	 */
+	private void doWheelRefine() {
+		
+		Scene task = wheelBase;
+		Rectangle2D view = wheelView;
+		wheelBase = null;
+		wheelView = null;
+		wheelPreview = null;
+		wheelPreviewView = null;
+		wheelShown = null;
+		wheelShownView = null;
+		
+		// Only the preview is rendering if the frame is still on top
+		if (task == null || task != frameStack.peek()) {
+			return;
+		}
+		renderer.abortRendering();
+		if (view.equals(getVisible(task))) {
+			imageComponent.setImage(task.getImage(), view);
+			doRenderCheck();
+			return;
+		}
+		
+		discardedFrame = null;
+		frameStack.push(task.createDetail(view.getX(), view.getY(),
+				view.getWidth(), view.getHeight()));
+		
+		// Zoom
+		cancelable = true;
+		progressLabel.setText(Messages.getString(view.getWidth()
+				< getVisible(task).getWidth()
+				? "MandelbrotPanel.zooming_in_message" //$NON-NLS-1$
+				: "MandelbrotPanel.zooming_out_message")); //$NON-NLS-1$
+		doRenderCheck();
+		
+		// Keep the old frame's image while the cache has room
+		cache.put(task);
+		
+	}
+	
 	/**
 	 * Discards a frame and causes the view to zoom out. This action is
 	 * cancelable by the uesr.
@@ -303,8 +894,8 @@ public class MandelbrotPanel extends JPanel {
 		progressLabel.setText(Messages.getString("MandelbrotPanel.zooming_out_message")); //$NON-NLS-1$
 		doRenderCheck();
 
-		// Allow GC on unused image if the VM runs out of memory
-		discardedFrame.allowImageGC();
+		// Keep the old frame's image while the cache has room
+		cache.put(discardedFrame);
 
 	}
 	
@@ -313,13 +904,50 @@ public class MandelbrotPanel extends JPanel {
 	 */
 	private void doReset() {
 		
-		frameStack.setSize(1);
+		// Keep the old frames' images while the cache has room
+		while (frameStack.size() > 1) {
+			cache.put((Scene) frameStack.pop());
+		}
 		cancelable = false;
 		progressLabel.setText(Messages.getString("MandelbrotPanel.reseting_message")); //$NON-NLS-1$
 		doRenderCheck();
 		
 	}
 	
+	/**
+	 * Switches to the next palette and recolors the view. Recoloring reuses
+	 * the frame's iteration counts, so it is quick and not cancelable.
+	 */
+	private void doRecolor() {
+		
+		palette = palette.next();
+		cancelable = false;
+		progressLabel.setText(Messages.getString("MandelbrotPanel.coloring_message")); //$NON-NLS-1$
+		doRenderCheck();
+		
+	}
+	
+	/**
+	 * Turns the colors of the view one step through the palette's cycle.
+	 * The view's image is indexed while cycling, so only its colors are
+	 * replaced, and the image on screen is swapped for the recolored one.
+	 */
+	private void doCycle() {
+		
+		cycle = (cycle + 1) % Palette.CYCLE_LENGTH;
+		Scene task = (Scene) frameStack.peek();
+		Image before = task.getImage();
+		task.setCycle(cycle);
+		
+		// Leave previews and images being rendered alone; they pick up
+		// the cycle when they are shown
+		if (before != null && imageComponent.getImage() == before) {
+			imageComponent.setImage(task.getImage(),
+					imageComponent.getVisible());
+		}
+		
+	}
+	
 	/**
 	 * Discards the rendering frame and restores the last one visible.
 	 */
@@ -332,9 +960,7 @@ public class MandelbrotPanel extends JPanel {
 
 		if (discardedFrame == null) {
 			frameStack.pop();
-			((Scene) frameStack.peek()).disallowImageGC();
 		} else {
-			discardedFrame.disallowImageGC();
 			frameStack.push(discardedFrame);
 			discardedFrame = null;
 		}
@@ -347,6 +973,38 @@ public class MandelbrotPanel extends JPanel {
 		
 	}
 	
+	/**
+	 * Reports a frame that could not be rendered, and goes back to the
+	 * frame shown before it, as if the rendering had been canceled. The
+	 * first frame has none to go back to, so the panel is left without an
+	 * image until it is resized or reset.
+	 */
+	private void doRenderFailed(Throwable failure) {
+		
+		cancelable = false;
+		boolean back = true;
+		if (discardedFrame != null) {
+			frameStack.push(discardedFrame);
+			discardedFrame = null;
+		} else if (frameStack.size() > 1) {
+			frameStack.pop();
+		} else {
+			back = false;
+			setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
+			imageComponent.clearSelection();
+			imageComponent.setLocked(false);
+			blackPanel.setVisible(false);
+		}
+		
+		JOptionPane.showMessageDialog(this, failure.toString(),
+				Messages.getString("MandelbrotPanel.rendering_failed_title"), //$NON-NLS-1$
+				JOptionPane.ERROR_MESSAGE);
+		if (back) {
+			doRenderCheck();
+		}
+		
+	}
+	
 	/**
 	 * Updates GUI components and begins rendering if needed. Generally,
 	 * rendering restarts whenever the rendering thread has not been notified
@@ -357,6 +1015,18 @@ public class MandelbrotPanel extends JPanel {
 		
 		// Read currently displayed frame from stack
 		Scene task = (Scene) frameStack.peek();
+		
+		// Take the frame back from the cache, or the data of a cached
+		// frame of the same view
+		if (renderer.getTask() != task) {
+			cache.restore(task);
+		}
+		
+		// Discard the frame's image if it was colored with another palette,
+		// or only change its colors if it is indexed
+		task.setIndexed(cycling);
+		task.setPalette(palette);
+		task.setCycle(cycle);
 
 		// Update rendering thread
 		if (    // If no image is available ...
@@ -390,11 +1060,15 @@ public class MandelbrotPanel extends JPanel {
 			progressLabel.setText(Messages.getString("MandelbrotPanel.scaling_message")); //$NON-NLS-1$
 		
 			// Flush image to panel, computing the visible rectangle
-			Rectangle visible = getVisible(task);
+			// The image may already be shown as a preview, but its final
+			// pixels still need to be painted
+			Rectangle2D visible = getVisible(task);
 			if (imageComponent.getImage() != task.getImage()) {
 				imageComponent.setImage(task.getImage(), visible);
 			} else if (!imageComponent.getVisible().equals(visible)) {
 				imageComponent.setVisible(visible);
+			} else {
+				imageComponent.repaintImage();
 			}
 
 		}
@@ -409,30 +1083,22 @@ public class MandelbrotPanel extends JPanel {
 		// Replace topmost frame if resolution has changed	
 		if (!lastKnownBounds.equals(getBounds())) {
 
-			// Clear all cached images			
+			// Replace every frame, caching the old images in case the
+			// panel returns to this size
 			for (int i = 0; i < frameStack.size(); ++i) {
 				Scene task = (Scene) frameStack.get(i);
-				frameStack.set(i, new Scene(
+				cache.put(task);
+				frameStack.set(i, task.withResolution(
 						Math.max(1, getWidth()),
-						Math.max(1, getHeight()),
-						task.getLimit(),
-						task.getLookTop(), task.getLookBottom(),
-						task.getLookLeft(), task.getLookRight()));
+						Math.max(1, getHeight())));
 			}
 			if (discardedFrame != null) {
-				discardedFrame = new Scene(
+				discardedFrame = discardedFrame.withResolution(
 						Math.max(1, getWidth()),
-						Math.max(1, getHeight()),
-						discardedFrame.getLimit(),
-						discardedFrame.getLookTop(),
-						discardedFrame.getLookBottom(),
-						discardedFrame.getLookLeft(),
-						discardedFrame.getLookRight());
+						Math.max(1, getHeight()));
 			}
 			
 			lastKnownBounds = getBounds();
-			
-			System.gc();
 
 			// Rendering may be required
 			doRenderCheck();
@@ -441,32 +1107,90 @@ public class MandelbrotPanel extends JPanel {
 
 	}
 	
+	/**
+	 * Sets how many bytes of images, iteration counts, and saved orbits
+	 * are kept for frames that are off screen, so that returning to them
+	 * needs no rendering. The frames used least recently are discarded
+	 * first. The default is 128 MB.
+	 * 
+	 * @param bytes the budget in bytes
+	 */
+	public void setCacheBudget(long bytes) {
+		cache.setBudget(bytes);
+	}
+	
+	/**
+	 * Sets how many bytes of tiles are kept for views on the tile grid to
+	 * share, so that resizing or returning to a view renders only the
+	 * tiles it has not seen. The default is 64 MB.
+	 * 
+	 * @param bytes the budget in bytes
+	 */
+	public void setTileCacheBudget(long bytes) {
+		tiles.setBudget(bytes);
+	}
+	
+	/**
+	 * Keeps the iteration counts of rendered views in files in a
+	 * directory, so that views rendered by an earlier run load from disk.
+	 * The files used least recently are deleted once they exceed the
+	 * budget. Disk caching is off unless this is called.
+	 * 
+	 * @param directory the directory for the files, created if needed
+	 * @param bytes the budget in bytes
+	 */
+	public void setDiskCache(File directory, long bytes) {
+		renderer.setDiskCache(new DiskCache(directory, bytes));
+	}
+	
+	/**
+	 * Turns color cycling on or off. While it is on, the colors of the
+	 * view flow through the palette about 60 times a second. Views are
+	 * then colored with indexed images, which take their colors from a
+	 * table, so that each step only swaps the table and repaints; their
+	 * palettes repeat every {@link Palette#CYCLE_LENGTH} iterations, and
+	 * they are not antialiased. Cycling is off by default.
+	 * 
+	 * @param b true to cycle colors
+	 */
+	public void setColorCycling(boolean b) {
+		if (b == cycling) {
+			return;
+		}
+		cycling = b;
+		if (b) {
+			cycleTimer.start();
+		} else {
+			cycleTimer.stop();
+		}
+		cancelable = false;
+		progressLabel.setText(Messages.getString("MandelbrotPanel.coloring_message")); //$NON-NLS-1$
+		doRenderCheck();
+	}
+	
+	public boolean isColorCycling() {
+		return cycling;
+	}
+	
 	/**
 	 * Computes the visible rectangle in a scene. Useful for passing
-	 * {@link ImageSelectionComponent#setImage(Image,Rectangle)} the correct
+	 * {@link ImageSelectionComponent#setImage(Image,Rectangle2D)} the correct
 	 * arguments.
 	 * 
 	 * @param task the task from which to read data
 	 * @return a rectangle indicating which portion of the image the uesr
 	 *         is interested in viewing
 	 */
-	private static Rectangle getVisible(Scene task) {
-		Image image = task.getImage();
-		int iw = image.getWidth(null);
-		int ih = image.getHeight(null);
-		double st = task.getSeeTop();
-		double sb = task.getSeeBottom();
-		double sl = task.getSeeLeft();
-		double sr = task.getSeeRight();
-		double lt = task.getLookTop();
-		double lb = task.getLookBottom();
-		double ll = task.getLookLeft();
-		double lr = task.getLookRight();
-		return new Rectangle(
-				(int) Math.round((ll * iw - sl * iw) / (sr - sl)),
-				(int) Math.round((st * ih - lt * ih) / (st - sb)),
-				(int) Math.round((lr * iw - ll * iw) / (sr - sl)),
-				(int) Math.round((lt * ih - lb * ih) / (st - sb)));
+	private static Rectangle2D getVisible(Scene task) {
+		int iw = task.getHorizontalResolution();
+		int ih = task.getVerticalResolution();
+		double sw = task.getSeeWidth();
+		double sh = task.getSeeHeight();
+		return new Rectangle2D.Double(
+				task.getLookOffsetX() * iw / sw,
+				task.getLookOffsetY() * ih / sh,
+				task.getLookWidth() * iw / sw,
+				task.getLookHeight() * ih / sh);
 	}
 	
 }
@@ -0,0 +1,204 @@
+/*
+ * PackedInts.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed copy of an array of nonnegative ints, such as the iteration
+ * counts or pixels of a scene kept off screen. Each value is narrowed to
+ * as few bytes as the largest one needs, two for limits up to 65535 and
+ * three for RGB colors, and the bytes are deflated. Iteration counts come
+ * in long runs and repeat from row to row, so they usually shrink by a
+ * factor of ten or more.
+ * <p>
+ * Instances are immutable, and may be shared by threads. They may also be
+ * written to a file, and the values read back straight from a mapping of
+ * it.
+ *
+ * @author Matthew Nelson
+ */
+class PackedInts {
+
+	/**
+	 * The number of values narrowed and deflated at a time.
+	 */
+	private static final int CHUNK = 16384;
+
+	private final int length;
+	private final int width;
+	private final byte[] data;
+
+	/**
+	 * Compresses an array. Speed matters more than size here, since it is
+	 * done every time a scene leaves the screen.
+	 *
+	 * @param values the values, none of them negative
+	 * @throws IllegalArgumentException if a value is negative
+	 */
+	public PackedInts(int[] values) {
+
+		// Bytes needed by the largest value
+		int max = 0;
+		for (int i = 0; i < values.length; ++i) {
+			if (values[i] < 0) {
+				throw new IllegalArgumentException("negative value");
+			}
+			max |= values[i];
+		}
+		int w = 1;
+		while (w < 4 && max >>> (8 * w) != 0) {
+			++w;
+		}
+
+		// Narrow each chunk to big-endian bytes and deflate it
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				values.length / 8 + 64);
+		byte[] in = new byte[CHUNK * w];
+		byte[] buffer = new byte[CHUNK];
+		for (int start = 0; start < values.length; start += CHUNK) {
+			int end = Math.min(start + CHUNK, values.length);
+			int k = 0;
+			for (int i = start; i < end; ++i) {
+				for (int shift = 8 * (w - 1); shift >= 0; shift -= 8) {
+					in[k++] = (byte) (values[i] >>> shift);
+				}
+			}
+			deflater.setInput(in, 0, k);
+			while (!deflater.needsInput()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+		}
+		deflater.finish();
+		while (!deflater.finished()) {
+			out.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+
+		length = values.length;
+		width = w;
+		data = out.toByteArray();
+
+	}
+
+	/**
+	 * Returns the number of values.
+	 */
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * Returns the approximate number of bytes held.
+	 */
+	public long getDataSize() {
+		return data.length;
+	}
+
+	/**
+	 * Decompresses the values into a new array.
+	 */
+	public int[] unpack() {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		try {
+			return inflate(inflater, length, width);
+		} catch (DataFormatException e) {
+			// The data was deflated by this class
+			throw new IllegalStateException(e.toString());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Writes the packed values, to be read back with
+	 * {@link #read(ByteBuffer, int)}.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(length);
+		out.writeInt(width);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	/**
+	 * Reads and decompresses values written by
+	 * {@link #write(DataOutput)}, leaving the buffer positioned after them.
+	 * The compressed bytes are inflated straight from the buffer, which
+	 * may map a file.
+	 *
+	 * @param in the buffer to read from
+	 * @param length the number of values expected
+	 * @throws IOException if the buffer does not hold that many packed
+	 *           values
+	 */
+	public static int[] read(ByteBuffer in, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			int n = in.getInt();
+			int w = in.getInt();
+			int size = in.getInt();
+			if (n != length || w < 1 || w > 4
+					|| size < 0 || size > in.remaining()) {
+				throw new IOException("bad packed values header");
+			}
+			ByteBuffer bytes = in.slice();
+			bytes.limit(size);
+			in.position(in.position() + size);
+			inflater.setInput(bytes);
+			return inflate(inflater, length, w);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated packed values");
+		} catch (DataFormatException e) {
+			throw new IOException(e.toString());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Inflates values of the given width from an inflater's input. Input
+	 * that ends before all of them, or that asks for a preset dictionary,
+	 * which this class never uses, is corrupt.
+	 */
+	private static int[] inflate(Inflater inflater, int length, int width)
+			throws DataFormatException {
+		byte[] bytes = new byte[length * width];
+		int n = 0;
+		while (n < bytes.length) {
+			int k = inflater.inflate(bytes, n, bytes.length - n);
+			if (k == 0) {
+				// Finished, or needs input or a dictionary it won't get
+				throw new DataFormatException("too few values");
+			}
+			n += k;
+		}
+
+		int[] values = new int[length];
+		int k = 0;
+		for (int i = 0; i < length; ++i) {
+			int v = 0;
+			for (int j = 0; j < width; ++j) {
+				v = v << 8 | bytes[k++] & 0xff;
+			}
+			values[i] = v;
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Palette.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Maps iteration counts to colors. Because a {@link Scene} keeps the
+ * iteration counts of its pixels, changing its palette only recolors the
+ * image; nothing is iterated again, except to antialias it.
+ *
+ * @author Matthew Nelson
+ */
+abstract class Palette {
+
+	/**
+	 * The original coloring: escaping points are shaded linearly from black
+	 * to white by iteration count, and all other points are black.
+	 */
+	public static final Palette LINEAR = new Palette() {
+		public int getColor(int n, int limit) {
+			if (n == limit || n == 0) {
+				return 0;
+			} else {
+				return 0xffffff / limit * n;
+			}
+		}
+	};
+
+	/**
+	 * Escaping points cycle through shades of gray every 64 iterations.
+	 */
+	public static final Palette GRAY_BANDS = new Palette() {
+		public int getColor(int n, int limit) {
+			if (n == limit || n == 0) {
+				return 0;
+			}
+			int v = n & 0x3f;
+			v = (v < 0x20 ? v : 0x3f - v) * 8 + 7;
+			return v << 16 | v << 8 | v;
+		}
+	};
+
+	/**
+	 * Escaping points are shaded from dark red through orange to pale
+	 * yellow, logarithmically, so detail near the set stays visible at
+	 * high limits.
+	 */
+	public static final Palette FIRE = new Palette() {
+		public int getColor(int n, int limit) {
+			if (n == limit || n == 0) {
+				return 0;
+			}
+			float t = (float) (Math.log(n) / Math.log(limit));
+			int r = Math.min(255, Math.round(t * 3 * 255));
+			int g = Math.min(255, Math.max(0, Math.round((t * 3 - 1) * 255)));
+			int b = Math.min(255, Math.max(0, Math.round((t * 3 - 2) * 255)));
+			return r << 16 | g << 8 | b;
+		}
+	};
+
+	private static final Palette[] PALETTES = { LINEAR, GRAY_BANDS, FIRE };
+
+	/**
+	 * The number of colors that escaping points cycle through in an
+	 * indexed image. Count <i>n</i> takes color 1 + (<i>n</i> - 1) mod
+	 * this length, whatever the limit, and points that never escaped take
+	 * color 0. The palette is stretched over one cycle, as if the limit
+	 * were one more than its length.
+	 */
+	public static final int CYCLE_LENGTH = 255;
+
+	/**
+	 * Returns the color of a point.
+	 *
+	 * @param n the number of iterations before the point escaped, or
+	 *          <code>limit</code> if it never did
+	 * @param limit the iteration limit of the scene
+	 * @return a packed RGB color
+	 */
+	public abstract int getColor(int n, int limit);
+
+	/**
+	 * Returns a table of the colors of every iteration count from 0 to
+	 * <code>limit</code>, inclusive, for fast lookups.
+	 */
+	public int[] createTable(int limit) {
+		int[] table = new int[limit + 1];
+		for (int n = 0; n <= limit; ++n) {
+			table[n] = getColor(n, limit);
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the index of a count's color in an indexed image.
+	 *
+	 * @see #CYCLE_LENGTH
+	 */
+	public static int getCycleIndex(int n, int limit) {
+		return (n == limit || n == 0) ? 0 : 1 + (n - 1) % CYCLE_LENGTH;
+	}
+
+	/**
+	 * Returns the colors of an indexed image, with the escaping colors
+	 * rotated by <code>shift</code> places, so that stepping the shift
+	 * makes the colors flow through the image.
+	 *
+	 * @param shift the rotation, from 0 to <code>CYCLE_LENGTH - 1</code>
+	 */
+	public IndexColorModel createColorModel(int shift) {
+		int[] colors = createCycleColors(shift);
+		return new IndexColorModel(8, colors.length, colors, 0, false, -1,
+				DataBuffer.TYPE_BYTE);
+	}
+
+	/**
+	 * Returns a table of the colors of every iteration count from 0 to
+	 * <code>limit</code>, inclusive, as an indexed image with the given
+	 * shift shows them.
+	 */
+	public int[] createCycleTable(int limit, int shift) {
+		int[] colors = createCycleColors(shift);
+		int[] table = new int[limit + 1];
+		for (int n = 0; n <= limit; ++n) {
+			table[n] = colors[getCycleIndex(n, limit)];
+		}
+		return table;
+	}
+
+	private int[] createCycleColors(int shift) {
+		int[] colors = new int[CYCLE_LENGTH + 1];
+		colors[0] = getColor(CYCLE_LENGTH + 1, CYCLE_LENGTH + 1);
+		for (int i = 1; i <= CYCLE_LENGTH; ++i) {
+			colors[i] = getColor(1 + (i - 1 + shift) % CYCLE_LENGTH,
+					CYCLE_LENGTH + 1);
+		}
+		return colors;
+	}
+
+	/**
+	 * Returns the palette after this one in a fixed cycle of the predefined
+	 * palettes.
+	 */
+	public Palette next() {
+		for (int i = 0; i < PALETTES.length; ++i) {
+			if (PALETTES[i] == this) {
+				return PALETTES[(i + 1) % PALETTES.length];
+			}
+		}
+		return PALETTES[0];
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+ * ReferenceOrbit.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The orbit of one point of a deep view, computed exactly and stored as
+ * doubles, against which the orbits of the view's pixels are computed by
+ * perturbation. A pixel at c = C + dc has the orbit z = Z + dz, where Z is
+ * the reference orbit of C, and the small difference dz obeys
+ * <pre>
+ *     dz &lt;- 2 Z dz + dz^2 + dc
+ * </pre>
+ * which doubles evaluate accurately no matter how deep the view is.
+ * <p>
+ * Where z comes closer to zero than dz is large, the difference has lost
+ * most of its precision and the pixel would show glitches. Such pixels are
+ * rebased: their full z becomes the new difference from the start of the
+ * reference orbit, whose first value is zero. The same happens when the
+ * reference orbit escapes before the pixel's does, so one reference serves
+ * every pixel.
+ * <p>
+ * Optionally, the first iterations of every pixel are skipped with the
+ * series dz = A dc + B dc^2 + C dc^3, as long as its last term stays
+ * negligible across the whole view.
+ * <p>
+ * Instances are immutable once constructed, and may be shared by threads.
+ *
+ * @author Matthew Nelson
+ */
+class ReferenceOrbit {
+
+	/**
+	 * The largest ratio of the series approximation's last term to its
+	 * first for which iterations are skipped.
+	 */
+	private static final double SERIES_TOLERANCE = 1e-10;
+
+	/**
+	 * How often, in iterations, the exact computation checks whether it
+	 * should give up.
+	 */
+	private static final int ABORT_INTERVAL = 1024;
+
+	/*
+	 * The reference orbit, from Z_0 = 0 through the first value that
+	 * escapes or the limit, whichever comes first.
+	 */
+
+	private final double[] zx;
+	private final double[] zy;
+	private final int length;
+
+	/*
+	 * The number of iterations skipped by series approximation, and the
+	 * coefficients A, B, and C of the series after that many iterations.
+	 */
+
+	private final int skip;
+	private final double ax, ay, bx, by, cx, cy;
+
+	/**
+	 * Computes a reference orbit.
+	 *
+	 * @param centerX the real part of the reference point
+	 * @param centerY the imaginary part of the reference point
+	 * @param limit the maximum number of iterations
+	 * @param precision the number of significant decimal digits to keep
+	 * @param radius the largest distance from the reference point to any
+	 *          pixel, or zero to not approximate a series
+	 * @param running checked periodically; when it turns false, computation
+	 *          stops early and the orbit should be discarded
+	 */
+	public ReferenceOrbit(BigDecimal centerX, BigDecimal centerY, int limit,
+			int precision, double radius, Condition running) {
+
+		MathContext mc = new MathContext(precision);
+		final BigDecimal two = BigDecimal.valueOf(2);
+
+		double[] x = new double[Math.min(limit, 1024) + 1];
+		double[] y = new double[x.length];
+		BigDecimal rx = BigDecimal.ZERO;
+		BigDecimal ry = BigDecimal.ZERO;
+		int n = 0;
+
+		// Series coefficients after n iterations, and the best so far
+		double sax = 0, say = 0, sbx = 0, sby = 0, scx = 0, scy = 0;
+		int bestSkip = 0;
+		double bax = 0, bay = 0, bbx = 0, bby = 0, bcx = 0, bcy = 0;
+		boolean seriesValid = radius > 0;
+		final double r2 = radius * radius;
+
+		while (true) {
+
+			// Store Z_n
+			if (n == x.length) {
+				double[] nx = new double[Math.min(limit + 1, n * 2)];
+				double[] ny = new double[nx.length];
+				System.arraycopy(x, 0, nx, 0, n);
+				System.arraycopy(y, 0, ny, 0, n);
+				x = nx;
+				y = ny;
+			}
+			x[n] = rx.doubleValue();
+			y[n] = ry.doubleValue();
+
+			// Stop after the limit, or once the reference escapes
+			if (n == limit || x[n] * x[n] + y[n] * y[n] >= 4) {
+				break;
+			}
+			if (n % ABORT_INTERVAL == 0 && !running.isTrue()) {
+				break;
+			}
+
+			// Advance the series: A <- 2ZA + 1, B <- 2ZB + A^2,
+			// C <- 2ZC + 2AB
+			if (seriesValid) {
+				double zrx = 2 * x[n];
+				double zry = 2 * y[n];
+				double nax = zrx * sax - zry * say + 1;
+				double nay = zrx * say + zry * sax;
+				double nbx = zrx * sbx - zry * sby + sax * sax - say * say;
+				double nby = zrx * sby + zry * sbx + 2 * sax * say;
+				double ncx = zrx * scx - zry * scy
+						+ 2 * (sax * sbx - say * sby);
+				double ncy = zrx * scy + zry * scx
+						+ 2 * (sax * sby + say * sbx);
+				sax = nax;
+				say = nay;
+				sbx = nbx;
+				sby = nby;
+				scx = ncx;
+				scy = ncy;
+
+				// The last term must be negligible next to the first
+				double a = Math.sqrt(sax * sax + say * say);
+				double c = Math.sqrt(scx * scx + scy * scy);
+				if (c * r2 <= SERIES_TOLERANCE * a
+						&& !Double.isInfinite(a) && !Double.isNaN(c)) {
+					bestSkip = n + 1;
+					bax = sax;
+					bay = say;
+					bbx = sbx;
+					bby = sby;
+					bcx = scx;
+					bcy = scy;
+				} else {
+					seriesValid = false;
+				}
+			}
+
+			// Z <- Z^2 + C, exactly to the given precision
+			BigDecimal rx2 = rx.multiply(rx, mc);
+			BigDecimal ry2 = ry.multiply(ry, mc);
+			BigDecimal rxy = rx.multiply(ry, mc);
+			rx = rx2.subtract(ry2, mc).add(centerX, mc);
+			ry = rxy.multiply(two, mc).add(centerY, mc);
+			++n;
+
+		}
+
+		zx = x;
+		zy = y;
+		length = n + 1;
+
+		// Never skip to the end of the reference orbit
+		skip = Math.min(bestSkip, n - 1);
+		ax = bax;
+		ay = bay;
+		bx = bbx;
+		by = bby;
+		cx = bcx;
+		cy = bcy;
+
+	}
+
+	/**
+	 * Returns the number of iterations every pixel skips by series
+	 * approximation.
+	 */
+	public int getSkippedIterations() {
+		return Math.max(0, skip);
+	}
+
+	/**
+	 * Iterates the point at an offset from the reference point, with the
+	 * same meaning as {@link RenderingDaemon#iterate(double, double, int,
+	 * boolean)}.
+	 *
+	 * @param dcx the real part of the offset
+	 * @param dcy the imaginary part of the offset
+	 * @param limit the maximum number of iterations
+	 * @return the number of iterations before escaping, or
+	 *         <code>limit</code> if the point never escaped
+	 */
+	public int iterate(double dcx, double dcy, int limit) {
+
+		// Difference from the reference, and indices into the orbit of the
+		// pixel and of the reference
+		double dzx = 0;
+		double dzy = 0;
+		int k = 0;
+		int m = 0;
+
+		if (skip > 0) {
+
+			// dz = A dc + B dc^2 + C dc^3
+			double dc2x = dcx * dcx - dcy * dcy;
+			double dc2y = 2 * dcx * dcy;
+			double dc3x = dc2x * dcx - dc2y * dcy;
+			double dc3y = dc2x * dcy + dc2y * dcx;
+			double sx = ax * dcx - ay * dcy + bx * dc2x - by * dc2y
+					+ cx * dc3x - cy * dc3y;
+			double sy = ax * dcy + ay * dcx + bx * dc2y + by * dc2x
+					+ cx * dc3y + cy * dc3x;
+
+			// Only usable if the pixel has not escaped in the meantime
+			double fx = zx[skip] + sx;
+			double fy = zy[skip] + sy;
+			if (fx * fx + fy * fy < 4) {
+				dzx = sx;
+				dzy = sy;
+				k = skip;
+				m = skip;
+			}
+
+		}
+
+		while (k < limit) {
+
+			// dz <- 2 Z dz + dz^2 + dc
+			final double rx = zx[m];
+			final double ry = zy[m];
+			final double nx = 2 * (rx * dzx - ry * dzy)
+					+ dzx * dzx - dzy * dzy + dcx;
+			dzy = 2 * (rx * dzy + ry * dzx) + 2 * dzx * dzy + dcy;
+			dzx = nx;
+			++m;
+			++k;
+
+			// The pixel's own z
+			final double fx = zx[m] + dzx;
+			final double fy = zy[m] + dzy;
+			final double f2 = fx * fx + fy * fy;
+			if (f2 >= 4) {
+				return k - 1;
+			}
+
+			// Rebase when the difference dominates, or the reference ends
+			if (f2 < dzx * dzx + dzy * dzy || m == length - 1) {
+				dzx = fx;
+				dzy = fy;
+				m = 0;
+			}
+
+		}
+		return limit;
+
+	}
+
+	/**
+	 * A condition checked while computing a reference orbit.
+	 */
+	interface Condition {
+		public boolean isTrue();
+	}
+
+}
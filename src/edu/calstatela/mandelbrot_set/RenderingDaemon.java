@@ -10,7 +10,18 @@
 
 package edu.calstatela.mandelbrot_set;
 
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
 import javax.swing.SwingUtilities;
 
 /**
@@ -20,14 +31,126 @@ import javax.swing.SwingUtilities;
  */
 class RenderingDaemon extends Thread {
 	
+	/**
+	 * The width and height of the square tiles handed to worker threads.
+	 * Small enough that abort checks stay quick and that expensive tiles
+	 * near the set's boundary are spread evenly across the pool.
+	 */
+	static final int TILE_SIZE = 32;
+	
+	/**
+	 * The tile size used with Mariani-Silver subdivision. Larger tiles let
+	 * uniform regions be filled in bigger pieces.
+	 */
+	private static final int SUBDIVISION_TILE_SIZE = 64;
+	
+	/**
+	 * Rectangles this narrow are iterated rather than subdivided further.
+	 */
+	private static final int SUBDIVISION_MINIMUM = 4;
+	
+	/**
+	 * The step of the coarsest interlaced pass, and the number of passes.
+	 * Each pass halves the step of the one before it, ending at one.
+	 * Tile sizes must be multiples of the step.
+	 */
+	private static final int INTERLACE_STEP = 8;
+	private static final int INTERLACE_PASSES = 4;
+	
+	/**
+	 * The number of saved orbits handed to a worker thread at a time when
+	 * resuming a scene with a higher limit.
+	 */
+	private static final int RESUME_CHUNK = 4096;
+	
+	/**
+	 * How far, in half rows, the real axis may be from the center of a row
+	 * or the boundary between two rows for the rows to be measured from it.
+	 */
+	private static final double AXIS_TOLERANCE = 1e-6;
+	
+	/**
+	 * The kernel that iterates several pixels at once with vector
+	 * instructions, or null if it is unavailable. It is compiled only on
+	 * JDKs with the incubating Vector API, and loads only when the JVM is
+	 * started with <code>--add-modules jdk.incubator.vector</code>.
+	 */
+	private static final Kernel VECTOR_KERNEL = loadKernel(
+			"edu.calstatela.mandelbrot_set.VectorKernel"); //$NON-NLS-1$
+	
+	/**
+	 * The kernel that iterates pixels in pairs, used when vector
+	 * instructions are unavailable or not wanted.
+	 */
+	private static final Kernel INTERLEAVED_KERNEL = new InterleavedKernel();
+	
+	/**
+	 * The kernel that iterates shallow views in floats first, or null if it
+	 * is unavailable or failed its check against the vector kernel, which
+	 * iterates in doubles the pixels it cannot decide. It is loaded and
+	 * checked the first time a scene asks for it. Guarded by the class.
+	 */
+	private static Kernel floatKernel = null;
+	private static boolean floatKernelChecked = false;
+	
+	/**
+	 * The most progress events delivered on the AWT Event Dispatch thread
+	 * per second, unless set otherwise.
+	 */
+	public static final int DEFAULT_EVENT_RATE = 30;
+	
 	private Scene synchronizedTask = null;
 	private final RenderingListener listener;
 	private final boolean fireEventsOnAWT;
+	private final int threads;
+	private RenderingPool pool = null;
+	private DiskCache diskCache = null;
+	private TileCache tileCache = null;
 	
+	/**
+	 * Progress events bound for the AWT Event Dispatch thread wait here,
+	 * merged into one, until it is their turn. Guarded by
+	 * <code>eventLock</code>.
+	 */
+	private final Object eventLock = new Object();
+	private RenderingEvent pendingEvent = null;
+	private boolean eventScheduled = false;
+	private long eventInterval = 1000000000L / DEFAULT_EVENT_RATE;
+	// System.nanoTime() has an arbitrary origin, so the first event counts
+	// from a delivery one interval before the daemon was created
+	private long lastEventTime = System.nanoTime() - eventInterval;
+	private long droppedEvents = 0;
+	private Timer eventTimer = null;
+	
+	/**
+	 * Creates a daemon that renders with one worker thread per available
+	 * processor.
+	 */
 	public RenderingDaemon(RenderingListener l, boolean eventsOnAWT) {
+		this(l, eventsOnAWT, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a daemon that renders with the given number of worker threads.
+	 * The workers are started along with the daemon and inherit its
+	 * priority.
+	 * 
+	 * @param l the listener notified of rendering progress
+	 * @param eventsOnAWT true if events should be fired on the AWT Event
+	 *          Dispatch thread; otherwise, they are fired on worker threads
+	 * @param threads the number of worker threads
+	 * @throws IllegalArgumentException if <code>threads</code> is
+	 *           nonpositive
+	 */
+	public RenderingDaemon(RenderingListener l, boolean eventsOnAWT,
+			int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("nonpositive thread count");
+		}
 		setDaemon(true);
 		listener = l;
 		fireEventsOnAWT = eventsOnAWT;
+		this.threads = threads;
 	}
 	
 	public synchronized void beginRendering(Scene task) {
@@ -42,17 +165,82 @@ class RenderingDaemon extends Thread {
 	public synchronized void abortRendering() {
 		synchronizedTask = null;
 	}
+	
+	/**
+	 * Sets the cache that scenes are loaded from before rendering, and
+	 * stored in after, or null for none.
+	 */
+	public synchronized void setDiskCache(DiskCache cache) {
+		diskCache = cache;
+	}
+	
+	public synchronized DiskCache getDiskCache() {
+		return diskCache;
+	}
+	
+	/**
+	 * Sets the cache that scenes on the grid take tiles from, and add their
+	 * new tiles to, or null for none.
+	 */
+	public synchronized void setTileCache(TileCache cache) {
+		tileCache = cache;
+	}
+	
+	public synchronized TileCache getTileCache() {
+		return tileCache;
+	}
+	
+	/**
+	 * Sets the most progress events per second delivered on the AWT Event
+	 * Dispatch thread. Events that come faster are merged, so that at most
+	 * one waits to be delivered at a time. Completion events are never
+	 * held back. Events fired on worker threads are not limited.
+	 * 
+	 * @throws IllegalArgumentException if <code>rate</code> is nonpositive
+	 */
+	public void setMaximumEventRate(int rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("nonpositive rate");
+		}
+		synchronized (eventLock) {
+			eventInterval = 1000000000L / rate;
+		}
+	}
+	
+	public int getMaximumEventRate() {
+		synchronized (eventLock) {
+			return (int) (1000000000L / eventInterval);
+		}
+	}
+	
+	/**
+	 * Returns the number of progress events merged into later ones, and so
+	 * never delivered on their own, since the daemon was created.
+	 */
+	public long getDroppedEventCount() {
+		synchronized (eventLock) {
+			return droppedEvents;
+		}
+	}
 
 	public void run() {
 		
+		// Workers are created here so they inherit this thread's priority
+		pool = new RenderingPool(threads);
+		
 		// Main loop
 		while (true) {
 			
 			// Wait for task in synchronized reference
 			Scene task = waitForTask();
 
-			// Perform rendering
-			doRender(task);			
+			// Perform rendering. A failure loses only this task, and is
+			// reported in place of its completion.
+			try {
+				doRender(task);
+			} catch (Throwable t) {
+				fireRenderingEvent(new RenderingEvent(this, task, t));
+			}
 			
 			// Clear task, loop back, and wait for another
 			synchronized (this) {
@@ -61,8 +249,6 @@ class RenderingDaemon extends Thread {
 				}
 			}
 			
-			System.gc();
-			
 		}
 		
 	}
@@ -78,101 +264,1765 @@ class RenderingDaemon extends Thread {
 		return task;	
 	}
 
+	/**
+	 * Returns true if <code>task</code> is still the one requested by the
+	 * client.
+	 */
+	private synchronized boolean isCurrent(Scene task) {
+		return synchronizedTask == task;
+	}
+
 	private void doRender(Scene task) {
 		
-		// Shorter variable names that don't call accessor methods :)
-		final double wt = task.getSeeTop();
-		final double wb = task.getSeeBottom();
-		final double wl = task.getSeeLeft();
-		final double wr = task.getSeeRight();
-		final int sdy = task.getVerticalResolution();
 		final int sdx = task.getHorizontalResolution();
+		final int sdy = task.getVerticalResolution();
+		
+		// Scenes packed while off screen are unpacked here, in the
+		// background, and need no coloring if their pixels were packed too
+		if (task.unpack() && task.getImage() != null) {
+			fireRenderingEvent(new RenderingEvent(this, task, 1.0f, true));
+			return;
+		}
+		
+		// Only the colors are missing if the counts are known
+		int[] counts = task.getCounts();
+		if (counts != null) {
+			doColorize(task, counts);
+			return;
+		}
+		
+		// Load the counts of a view rendered before, perhaps by an earlier
+		// run of the application
+		DiskCache disk = task.isPersistent() ? getDiskCache() : null;
+		if (disk != null && disk.load(task)) {
+			doColorize(task, task.getCounts());
+			return;
+		}
+		
+		// Continue from a scene with a lower limit when possible
+		if (task.getResumeBase() != null) {
+			doResume(task);
+			return;
+		}
+		
+		// Create count and pixel buffers, in row-major order, and an image
+		// sharing the pixels
+		counts = new int[sdx * sdy];
+		int[] output = new int[sdx * sdy];
+		BufferedImage image = createImage(output, sdx, sdy);
+		
+		// Choose passes, from coarsest to finest. Interlaced passes reuse
+		// the samples of coarser ones, but subdivision starts over.
+		int[] steps;
+		if (!task.isProgressive()) {
+			steps = new int[] {1};
+		} else if (task.isSubdividing()) {
+			steps = new int[] {INTERLACE_STEP, 1};
+		} else {
+			steps = new int[INTERLACE_PASSES];
+			for (int i = 0; i < steps.length; ++i) {
+				steps[i] = INTERLACE_STEP >> i;
+			}
+		}
+		
+		// Weigh each pass by the share of pixels it samples
+		boolean[] reuse = new boolean[steps.length];
+		float[] weights = new float[steps.length];
+		float totalWeight = 0;
+		for (int i = 0; i < steps.length; ++i) {
+			reuse[i] = i > 0 && (steps[i] > 1 || !task.isSubdividing());
+			weights[i] = 1.0f / (steps[i] * steps[i]);
+			if (reuse[i]) {
+				weights[i] -= 1.0f / (steps[i - 1] * steps[i - 1]);
+			}
+			totalWeight += weights[i];
+		}
+		
+		// Supersampling edges, if any, makes up the second half of the
+		// progress
+		if (task.getAntialiasing() > 1) {
+			totalWeight *= 2;
+		}
+		
+		int iterated = 0;
+		int shortCircuited = 0;
+		int filled = 0;
+		float completed = 0;
+		
+		// The deepest views are iterated relative to an exact reference
+		// orbit. Only orbits in doubles can be resumed.
+		int arithmetic = task.getArithmetic();
+		ReferenceOrbit reference = null;
+		if (arithmetic == Scene.PERTURBATION) {
+			reference = createReferenceOrbit(task);
+			if (!isCurrent(task)) {
+				return;
+			}
+		}
+		ResumeState undecided = (task.isResumable()
+				&& arithmetic == Scene.DOUBLE)
+				? new ResumeState(task.getLimit()) : null;
+		
+		// The colors of the counts, shared by every worker and pass
+		int[] table = createTable(task);
+		
+		// Take the tiles other scenes computed, with their final colors
+		TileCache tiles = TileCache.accepts(task) ? getTileCache() : null;
+		boolean[] reused = null;
+		int reusedPixels = 0;
+		if (tiles != null) {
+			reused = tiles.load(task, counts, undecided);
+		}
+		if (reused != null) {
+			int columns = sdx / TILE_SIZE;
+			for (int t = 0; t < reused.length; ++t) {
+				if (!reused[t]) {
+					continue;
+				}
+				int offset = (t / columns * sdx + t % columns) * TILE_SIZE;
+				for (int y = 0; y < TILE_SIZE; ++y) {
+					for (int x = 0; x < TILE_SIZE; ++x) {
+						int i = offset + y * sdx + x;
+						output[i] = table[counts[i]];
+					}
+				}
+				reusedPixels += TILE_SIZE * TILE_SIZE;
+			}
+		}
+		
+		// Only rows from top to bottom are rendered. The others lie on the
+		// smaller side of the real axis and are copied from their mirror
+		// images. Rendering starts on a row of the coarsest pass.
+		int axis = (task.isMirroring() && !task.isSubdividing())
+				? getAxis(task) : -1;
+		int top = 0;
+		int bottom = sdy;
+		if (axis >= sdy) {
+			bottom = (axis + 1) / 2;
+		} else if (axis >= 0) {
+			top = axis / 2 / INTERLACE_STEP * INTERLACE_STEP;
+		}
+		
+		for (int i = 0; i < steps.length; ++i) {
+		
+			// Split the pass among the workers. Orbits are only kept from
+			// passes whose samples are final.
+			boolean keep = undecided != null
+					&& (i == steps.length - 1 || reuse[i + 1]);
+			TileJob job = new TileJob(task, reference, table, counts,
+					output, image, steps[i], reuse[i], keep ? undecided : null,
+					completed, weights[i] / totalWeight, top, bottom, axis,
+					reused);
+			pool.invokeAll(job);
+			if (job.isAborted()) {
+				// A new task; break out
+				return;
+			}
+			completed += weights[i] / totalWeight;
+			
+			iterated += job.getIteratedPixels();
+			shortCircuited += job.getShortCircuitedPixels();
+			filled += job.getFilledPixels();
+			
+			// Notify client of a displayable preview
+			if (steps[i] > 1) {
+				fireRenderingEvent(new RenderingEvent(this, task, completed,
+						false, image));
+			}
+			
+		}
+				
+		if (!antialias(task, reference, table, counts, output, image,
+				completed)) {
+			return;
+		}
+		
+		// Mirrored pixels have mirrored orbits, unless their tile came with
+		// its own
+		if (undecided != null && axis >= 0) {
+			final int size = undecided.size();
+			final int columns = sdx / TILE_SIZE;
+			for (int e = 0; e < size; ++e) {
+				int i = undecided.getIndex(e);
+				int my = axis - 1 - i / sdx;
+				if ((my < top || my >= bottom) && my >= 0 && my < sdy
+						&& (reused == null || !reused[my / TILE_SIZE
+								* columns + i % sdx / TILE_SIZE])) {
+					undecided.add(my * sdx + i % sdx, undecided.getX(e),
+							-undecided.getY(e), undecided.getCount(e));
+				}
+			}
+		}
+				
+		task.setCounts(counts);
+		if (undecided != null) {
+			task.setResumeState(undecided);
+		}
+		if (disk != null) {
+			disk.store(task, counts, undecided);
+		}
+		if (tiles != null) {
+			tiles.store(task, counts, undecided, reused);
+		}
+		task.setImage(task.isIndexed() ? createIndexedImage(task, counts)
+				: image);
+		task.setPixelCounts(iterated, shortCircuited, filled,
+				(sdy - bottom + top) * sdx);
+		task.setReusedPixels(reusedPixels);
+			
+		// Notify client
+		fireRenderingEvent(new RenderingEvent(this, task, 1.0f, true));
+		
+	}
+	
+	/**
+	 * Returns the distance from the top edge of a scene to the real axis,
+	 * in half rows, if the axis crosses the scene through the center of a
+	 * row or between two rows, so that row <code>sy</code> mirrors row
+	 * <code>axis - 1 - sy</code>. Otherwise, or if the scene is not
+	 * iterated in doubles, returns -1.
+	 */
+	private static int getAxis(Scene task) {
+		if (task.getArithmetic() != Scene.DOUBLE) {
+			return -1;
+		}
+		final int sdy = task.getVerticalResolution();
+		final double rows = 2 * sdy * task.getSeeTop() / task.getSeeHeight();
+		final double axis = Math.rint(rows);
+		if (axis <= 0 || axis >= 2 * sdy
+				|| Math.abs(rows - axis) > AXIS_TOLERANCE) {
+			return -1;
+		}
+		return (int) axis;
+	}
+	
+	/**
+	 * Computes the reference orbit of the center of a deep scene.
+	 */
+	private ReferenceOrbit createReferenceOrbit(final Scene task) {
+		
+		final BigDecimal two = BigDecimal.valueOf(2);
+		BigDecimal centerX = task.getExactSeeLeft()
+				.add(task.getExactSeeRight()).divide(two);
+		BigDecimal centerY = task.getExactSeeTop()
+				.add(task.getExactSeeBottom()).divide(two);
+		
+		// Series approximation must hold out to the corners
+		double radius = 0;
+		if (task.isSeriesApproximation()) {
+			radius = Math.sqrt(task.getSeeWidth() * task.getSeeWidth()
+					+ task.getSeeHeight() * task.getSeeHeight()) / 2;
+		}
+		
+		return new ReferenceOrbit(centerX, centerY, task.getLimit(),
+				task.getPrecision(), radius, new ReferenceOrbit.Condition() {
+					public boolean isTrue() {
+						return isCurrent(task);
+					}
+				});
+		
+	}
+	
+	/**
+	 * Renders a scene by continuing the undecided pixels of a scene of the
+	 * same view with a lower limit. Pixels that escaped there have the same
+	 * count here and are not touched, so the cost depends only on the
+	 * number of undecided pixels.
+	 */
+	private void doResume(Scene task) {
+		
+		final ResumeState base = task.getResumeBase();
+		final int[] baseCounts = task.getResumeBaseCounts();
+		final int baseLimit = base.getLimit();
 		final int limit = task.getLimit();
 		
-		// Create image buffer
-		BufferedImage output = new BufferedImage(
-				sdx, sdy,	BufferedImage.TYPE_INT_RGB);
+		// Points in the set at the lower limit are, for now, in the set here
+		int[] counts = new int[baseCounts.length];
+		for (int i = 0; i < counts.length; ++i) {
+			int n = baseCounts[i];
+			counts[i] = (n == baseLimit) ? limit : n;
+		}
+		
+		// Split the undecided orbits among the workers
+		ResumeState undecided = new ResumeState(limit);
+		ResumeJob job = new ResumeJob(task, base, counts, undecided);
+		pool.invokeAll(job);
+		if (job.isAborted()) {
+			return;
+		}
+		
+		task.setCounts(counts);
+		task.setResumeState(undecided);
+		DiskCache disk = task.isPersistent() ? getDiskCache() : null;
+		if (disk != null) {
+			disk.store(task, counts, undecided);
+		}
+		TileCache tiles = getTileCache();
+		if (tiles != null && TileCache.accepts(task)) {
+			tiles.store(task, counts, undecided, null);
+		}
+		task.setPixelCounts(job.getIteratedPixels(),
+				job.getShortCircuitedPixels(), 0, 0);
+		
+		// Color the result
+		doColorize(task, counts);
+		
+	}
+	
+	/**
+	 * Builds the image of a scene from its stored iteration counts, using
+	 * the scene's palette, without iterating any point except to antialias
+	 * it.
+	 */
+	private void doColorize(Scene task, int[] counts) {
+		
+		// Indexed images only need the counts' color indices
+		if (task.isIndexed()) {
+			task.setImage(createIndexedImage(task, counts));
+			fireRenderingEvent(new RenderingEvent(this, task, 1.0f, true));
+			return;
+		}
+		
+		final int sdx = task.getHorizontalResolution();
+		final int sdy = task.getVerticalResolution();
+		int[] output = new int[sdx * sdy];
+		BufferedImage image = createImage(output, sdx, sdy);
+		
+		// Split the rows among the workers
+		int[] table = createTable(task);
+		ColorJob job = new ColorJob(task, table, counts, output);
+		pool.invokeAll(job);
+		if (job.isAborted()) {
+			return;
+		}
+		if (!antialias(task, null, table, counts, output, image, 0)) {
+			return;
+		}
+		
+		task.setImage(image);
+		
+		// Notify client
+		fireRenderingEvent(new RenderingEvent(this, task, 1.0f, true));
+		
+	}
+	
+	/**
+	 * Supersamples the pixels on edges of an antialiased scene, once every
+	 * pixel has its color, after showing the image as it is. Does nothing
+	 * to other scenes.
+	 * 
+	 * @param reference the orbit to perturb around, or null to compute it
+	 *          if needed
+	 * @param table the colors of the scene's counts
+	 * @param progressBase the completed ratio before supersampling
+	 * @return false if the scene has been replaced by a new task
+	 */
+	private boolean antialias(Scene task, ReferenceOrbit reference,
+			int[] table, int[] counts, int[] output, BufferedImage image,
+			float progressBase) {
+		
+		if (task.getAntialiasing() == 1) {
+			return true;
+		}
+		fireRenderingEvent(new RenderingEvent(this, task, progressBase,
+				false, image));
+		
+		if (reference == null && task.getArithmetic() == Scene.PERTURBATION) {
+			reference = createReferenceOrbit(task);
+			if (!isCurrent(task)) {
+				return false;
+			}
+		}
+		
+		// Split the rows among the workers
+		AntialiasJob job = new AntialiasJob(task, reference, table, counts,
+				output, image, progressBase);
+		pool.invokeAll(job);
+		if (job.isAborted()) {
+			return false;
+		}
+		task.setSupersampledPixels(job.getSupersampledPixels());
+		return true;
+		
+	}
+	
+	/**
+	 * Renders the pixels of one tile into the output buffer by iterating
+	 * every one of them. When <code>step</code> is greater than one, only
+	 * every <code>step</code>th pixel of every <code>step</code>th row is
+	 * sampled, and its color fills the block of pixels below and to the
+	 * right of it.
+	 * 
+	 * @param reuse true to skip pixels sampled by a pass with twice the
+	 *          step, whose blocks already hold the right color
+	 */
+	private static void renderTile(Sampler sampler, int[] counts,
+			int[] output, int x0, int y0, int x1, int y1, int step,
+			boolean reuse) {
+		
+		final int sdx = sampler.sdx;
+		final int[] table = sampler.table;
+		final int coarseMask = 2 * step - 1;
+		
+		// Columns sampled in a row, and their counts
+		final int[] xs = new int[(x1 - x0 + step - 1) / step];
+		final int[] ns = new int[xs.length];
 			
-		// Calculate some reused values
-		//   Center offsets, for translating to each pixel's center
-		final double xco = (wr - wl) / (2 * sdx);
-		final double yco = (wt - wb) / (2 * sdy);
+		for (int sy = y0; sy < y1; sy += step) {
 			
-		for (int sx = 0; sx < sdx; ++sx) {
-
-			// Calculate position of this column in world
-			final double wx = wl + xco * (2 * sx + 1);
-
-			for (int sy = 0; sy < sdy; ++sy) {
+			final int bh = Math.min(step, y1 - sy);
+			
+			int length = 0;
+			for (int sx = x0; sx < x1; sx += step) {
+				if (!reuse || ((sx | sy) & coarseMask) != 0) {
+					xs[length++] = sx;
+				}
+			}
+			sampler.sampleRow(xs, length, sy, ns);
+			
+			for (int j = 0; j < length; ++j) {
+				
+				final int sx = xs[j];
+				final int n = ns[j];
+				final int c = table[n];
+				
+				// Fill block; pixels of a row are adjacent in the buffer
+				final int bw = Math.min(step, x1 - sx);
+				for (int by = 0; by < bh; ++by) {
+					int i = (sy + by) * sdx + sx;
+					for (int bx = 0; bx < bw; ++bx, ++i) {
+						counts[i] = n;
+						output[i] = c;
+					}
+				}
+				
+			}
+				
+		}
+		
+	}
+	
+	/**
+	 * Renders the pixels of one tile into the output buffer using
+	 * Mariani-Silver subdivision. Because the Mandelbrot set is connected,
+	 * a rectangle whose border pixels share one iteration count contains
+	 * only pixels of that count, so its interior is filled without
+	 * iterating. Other rectangles are split in two, sharing the dividing
+	 * line, until they are small enough to iterate outright.
+	 * <p>
+	 * This is much faster on views with large uniform regions, but unlike
+	 * {@link #renderTile(Sampler, int[], int[], int, int, int, int, int,
+	 * boolean)} it may miss filaments thinner than a pixel that cross no
+	 * sampled border.
+	 */
+	private static void subdivideTile(Sampler sampler, int[] counts,
+			int[] output, int x0, int y0, int x1, int y1) {
+		
+		final int w = x1 - x0;
+		final int h = y1 - y0;
+		final int sdx = sampler.sdx;
+		final int[] table = sampler.table;
+		
+		// Iteration counts of this tile, or -1 where not yet known
+		int[] tileCounts = new int[w * h];
+		Arrays.fill(tileCounts, -1);
+		
+		subdivide(sampler, tileCounts, x0, y0, w, 0, 0, w, h);
+		
+		// Save results for tile to buffers
+		for (int ty = 0; ty < h; ++ty) {
+			int i = (y0 + ty) * sdx + x0;
+			int j = ty * w;
+			for (int tx = 0; tx < w; ++tx, ++i, ++j) {
+				counts[i] = tileCounts[j];
+				output[i] = table[tileCounts[j]];
+			}
+		}
+		
+	}
+	
+	/**
+	 * Fills the rectangle (x0, y0)-(x1, y1) of a tile's iteration counts,
+	 * exclusive of x1 and y1. The counts are stored in row-major order,
+	 * <code>w</code> to a row, and the tile's upper-left pixel is
+	 * (ox, oy) on screen.
+	 */
+	private static void subdivide(Sampler sampler, int[] counts,
+			int ox, int oy, int w, int x0, int y0, int x1, int y1) {
+		
+		// Small rectangles are cheaper to iterate outright
+		if (x1 - x0 <= SUBDIVISION_MINIMUM || y1 - y0 <= SUBDIVISION_MINIMUM) {
+			for (int y = y0; y < y1; ++y) {
+				for (int x = x0; x < x1; ++x) {
+					sample(sampler, counts, ox, oy, w, x, y);
+				}
+			}
+			return;
+		}
+		
+		// Sample the border, top and bottom rows then left and right columns
+		final int first = sample(sampler, counts, ox, oy, w, x0, y0);
+		boolean uniform = true;
+		for (int x = x0; x < x1; ++x) {
+			uniform &= sample(sampler, counts, ox, oy, w, x, y0) == first;
+			uniform &= sample(sampler, counts, ox, oy, w, x, y1 - 1) == first;
+		}
+		for (int y = y0 + 1; y < y1 - 1; ++y) {
+			uniform &= sample(sampler, counts, ox, oy, w, x0, y) == first;
+			uniform &= sample(sampler, counts, ox, oy, w, x1 - 1, y) == first;
+		}
+		
+		if (uniform) {
+			// Flood the interior with the border's count
+			for (int y = y0 + 1; y < y1 - 1; ++y) {
+				int j = y * w + x0 + 1;
+				for (int x = x0 + 1; x < x1 - 1; ++x, ++j) {
+					if (counts[j] < 0) {
+						counts[j] = first;
+						++sampler.filled;
+						if (first == sampler.limit) {
+							sampler.keepUnstarted((oy + y) * sampler.sdx
+									+ ox + x);
+						}
+					}
+				}
+			}
+		} else if (x1 - x0 >= y1 - y0) {
+			// Split along a column shared by both halves
+			int mx = (x0 + x1) / 2;
+			subdivide(sampler, counts, ox, oy, w, x0, y0, mx + 1, y1);
+			subdivide(sampler, counts, ox, oy, w, mx, y0, x1, y1);
+		} else {
+			// Split along a row shared by both halves
+			int my = (y0 + y1) / 2;
+			subdivide(sampler, counts, ox, oy, w, x0, y0, x1, my + 1);
+			subdivide(sampler, counts, ox, oy, w, x0, my, x1, y1);
+		}
+		
+	}
+	
+	/**
+	 * Returns the iteration count of tile pixel (x, y), computing it only if
+	 * it is not yet known.
+	 */
+	private static int sample(Sampler sampler, int[] counts,
+			int ox, int oy, int w, int x, int y) {
+		int j = y * w + x;
+		int n = counts[j];
+		if (n < 0) {
+			n = sampler.sample(ox + x, oy + y);
+			counts[j] = n;
+		}
+		return n;
+	}
+	
+	/**
+	 * Iterates z &lt;- z^2 + c, starting from z = c, until z escapes the
+	 * circle of radius 2 or the limit is reached.
+	 * 
+	 * @param cx the real part of c
+	 * @param cy the imaginary part of c
+	 * @param limit the maximum number of iterations
+	 * @param periodicity whether to check for cycles
+	 * @return the number of iterations before escaping, or
+	 *         <code>limit</code> if the point never escaped
+	 */
+	static int iterate(double cx, double cy, int limit,
+			boolean periodicity) {
+		return iterate(cx, cy, cx, cy, 0, limit, periodicity, null);
+	}
+	
+	/**
+	 * Continues iterating z &lt;- z^2 + c from a point of its orbit, until
+	 * z escapes the circle of radius 2 or the limit is reached.
+	 * <p>
+	 * When <code>periodicity</code> is true, the orbit is also checked for
+	 * cycles using Brent's method: z is compared against a saved value that
+	 * is refreshed at every power of two iterations. An orbit that returns
+	 * exactly to an earlier value repeats forever and never escapes, so the
+	 * result is the same as the brute-force loop's, usually much sooner
+	 * for points inside the set.
+	 * 
+	 * @param cx the real part of c
+	 * @param cy the imaginary part of c
+	 * @param zx the real part of z after <code>n</code> iterations
+	 * @param zy the imaginary part of z after <code>n</code> iterations
+	 * @param n the number of iterations already performed
+	 * @param limit the maximum number of iterations
+	 * @param periodicity whether to check for cycles
+	 * @param orbit if not null, receives the final value of z as
+	 *          { zx, zy }, or { NaN, NaN } if a cycle was found
+	 * @return the number of iterations before escaping, or
+	 *         <code>limit</code> if the point never escaped
+	 */
+	static int iterate(double cx, double cy, double zx, double zy, int n,
+			int limit, boolean periodicity, double[] orbit) {
+		
+		// Squares of zx and zy, so they aren't computed twice
+		double zx2 = zx * zx;
+		double zy2 = zy * zy;
+		
+		if (!periodicity) {
+			while (n < limit && zx2 + zy2 < 4) {
 					
-				// Calculate position of this row in world
-				final double wy = wt - yco * (2 * sy + 1);
+				// z <- z^2 + c, where z is the complex number x+y*i
+				zy = 2 * zx * zy + cy;
+				zx = zx2 - zy2 + cx;
 					
-				// Initialize values of c, represented here as zx + zy*i
-				double zx = wx;
-				double zy = wy;
+				// Update squares
+				zx2 = zx * zx;
+				zy2 = zy * zy;
 					
-				// Squares of zx and zy, so they aren't computed twice
-				double zx2 = zx * zx;
-				double zy2 = zy * zy;
+				// Update counter
+				++n;
 					
-				int n = 0;
-				while (n < limit && zx2 + zy2 < 4) {
-						
-					// z <- z^2 + c, where z is the complex number x+y*i
-					zy = 2 * zx * zy + wy;
-					zx = zx2 - zy2 + wx;
-						
-					// Update squares
-					zx2 = zx * zx;
-					zy2 = zy * zy;
+			}
+			if (orbit != null) {
+				orbit[0] = zx;
+				orbit[1] = zy;
+			}
+			return n;
+		}
+		
+		// Saved orbit point, and the schedule for replacing it
+		double px = zx;
+		double py = zy;
+		int power = 1;
+		int lambda = 0;
+		
+		while (n < limit && zx2 + zy2 < 4) {
+				
+			// z <- z^2 + c, where z is the complex number x+y*i
+			zy = 2 * zx * zy + cy;
+			zx = zx2 - zy2 + cx;
+				
+			// Update squares
+			zx2 = zx * zx;
+			zy2 = zy * zy;
+				
+			// Update counter
+			++n;
+			
+			// A repeated value means the orbit is periodic
+			if (zx == px && zy == py) {
+				if (orbit != null) {
+					orbit[0] = Double.NaN;
+					orbit[1] = Double.NaN;
+				}
+				return limit;
+			}
+			if (++lambda == power) {
+				px = zx;
+				py = zy;
+				power <<= 1;
+				lambda = 0;
+			}
+				
+		}
+		if (orbit != null) {
+			orbit[0] = zx;
+			orbit[1] = zy;
+		}
+		return n;
+		
+	}
+	
+	/**
+	 * Returns a new kernel of a class that needs the Vector API, or null
+	 * if this JVM can't load one.
+	 */
+	private static Kernel loadKernel(String className) {
+		try {
+			return (Kernel) Class.forName(className)
+					.getDeclaredConstructor(new Class[0])
+					.newInstance(new Object[0]);
+		} catch (Exception e) {
+			return null;
+		} catch (LinkageError e) {
+			// The Vector API module is missing
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the kernel that iterates in floats first, loading and
+	 * checking it on the first call, or null if it is unavailable or wrong.
+	 * The check takes a moment, so it is put off until a scene uses single
+	 * precision, rather than slowing every start.
+	 */
+	private static synchronized Kernel getFloatKernel() {
+		if (!floatKernelChecked) {
+			floatKernel = checkKernel(loadKernel(
+					"edu.calstatela.mandelbrot_set.FloatVectorKernel"), //$NON-NLS-1$
+					VECTOR_KERNEL);
+			floatKernelChecked = true;
+		}
+		return floatKernel;
+	}
+	
+	/**
+	 * Returns a kernel if it gives exactly the results of another on the
+	 * standard views: the whole set, as the panel first shows it, and the
+	 * seahorse valley, at a limit high enough that many points escape
+	 * late. Points on either side of the circle of radius 2 are checked
+	 * too, since they escape at once or not depending on the last bit.
+	 * Otherwise, or if either kernel is null, returns null, so that scenes
+	 * fall back to the other kernels.
+	 */
+	private static Kernel checkKernel(Kernel kernel, Kernel reference) {
+		if (kernel == null || reference == null) {
+			return null;
+		}
+		final double[][] views = {
+				{2, -2, -2, 2},
+				{0.15, 0.05, -0.8, -0.7}};
+		final int size = 64;
+		final int limit = 1000;
+		final int length = (views.length + 1) * size * size;
+		double[] cx = new double[length];
+		double[] cy = new double[length];
+		int i = 0;
+		for (int v = 0; v < views.length; ++v) {
+			double top = views[v][0];
+			double bottom = views[v][1];
+			double left = views[v][2];
+			double right = views[v][3];
+			for (int sy = 0; sy < size; ++sy) {
+				for (int sx = 0; sx < size; ++sx, ++i) {
+					cx[i] = left + (right - left) * (sx + 0.5) / size;
+					cy[i] = top - (top - bottom) * (sy + 0.5) / size;
+				}
+			}
+		}
+		
+		// Circles a few float units in the last place apart, around the
+		// circle that points escape past
+		for (int sy = 0; sy < size; ++sy) {
+			double radius = 2 + (sy - size / 2) * 0x1p-26;
+			for (int sx = 0; sx < size; ++sx, ++i) {
+				double angle = 2 * Math.PI * (sx + 0.5) / size;
+				cx[i] = radius * Math.cos(angle);
+				cy[i] = radius * Math.sin(angle);
+			}
+		}
+		
+		int[] counts = new int[length];
+		double[] zx = new double[length];
+		double[] zy = new double[length];
+		int[] expected = new int[length];
+		double[] ex = new double[length];
+		double[] ey = new double[length];
+		kernel.iterate(cx, cy, length, limit, true, counts, zx, zy);
+		reference.iterate(cx, cy, length, limit, true, expected, ex, ey);
+		for (i = 0; i < length; ++i) {
+			int n = expected[i];
+			if (counts[i] != n || (n == limit
+					&& (Double.compare(zx[i], ex[i]) != 0
+					|| Double.compare(zy[i], ey[i]) != 0))) {
+				return null;
+			}
+		}
+		return kernel;
+	}
+	
+	/**
+	 * Returns true if scenes that ask for vector instructions get them,
+	 * rather than falling back to iterating one pixel at a time.
+	 */
+	static boolean isVectorKernelAvailable() {
+		return VECTOR_KERNEL != null;
+	}
+	
+	/**
+	 * Wraps a buffer of packed RGB pixels in an image without copying it.
+	 * The image is equivalent to one of type
+	 * <code>BufferedImage.TYPE_INT_RGB</code>.
+	 * 
+	 * @param rgb the pixels, in row-major order
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 */
+	static BufferedImage createImage(int[] rgb, int width, int height) {
+		DirectColorModel model = new DirectColorModel(
+				24, 0xff0000, 0x00ff00, 0x0000ff);
+		WritableRaster raster = Raster.createPackedRaster(
+				new DataBufferInt(rgb, rgb.length), width, height, width,
+				model.getMasks(), null);
+		return new BufferedImage(model, raster, false, null);
+	}
+	
+	/**
+	 * Creates the indexed image of a scene from its counts. Its pixels are
+	 * the indices of the counts' colors, one byte each, and its colors come
+	 * from the scene's palette and cycle.
+	 * 
+	 * @see Scene#setIndexed(boolean)
+	 */
+	static BufferedImage createIndexedImage(Scene task, int[] counts) {
+		final int sdx = task.getHorizontalResolution();
+		final int sdy = task.getVerticalResolution();
+		final int limit = task.getLimit();
+		byte[] indices = new byte[counts.length];
+		for (int i = 0; i < counts.length; ++i) {
+			indices[i] = (byte) Palette.getCycleIndex(counts[i], limit);
+		}
+		WritableRaster raster = Raster.createInterleavedRaster(
+				new DataBufferByte(indices, indices.length), sdx, sdy, sdx, 1,
+				new int[] {0}, null);
+		return new BufferedImage(
+				task.getPalette().createColorModel(task.getCycle()), raster,
+				false, null);
+	}
+	
+	/**
+	 * Returns a table of the colors of a scene's counts, as its finished
+	 * image will show them.
+	 */
+	static int[] createTable(Scene task) {
+		Palette palette = task.getPalette();
+		if (task.isIndexed()) {
+			return palette.createCycleTable(task.getLimit(), task.getCycle());
+		}
+		return palette.createTable(task.getLimit());
+	}
+	
+	/**
+	 * Returns the buffer of packed RGB pixels shared by an image from
+	 * {@link #createImage(int[], int, int)}.
+	 */
+	static int[] getRGB(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+	
+	/**
+	 * Computes the iteration counts of individual pixels of a scene, and
+	 * keeps statistics about how they were found. Every worker thread uses
+	 * its own instance, so the statistics need no locking.
+	 */
+	private static class Sampler {
+		
+		// Shorter variable names that don't call accessor methods :)
+		final double wt;
+		final double wl;
+		final int sdx;
+		final int sdy;
+		final int limit;
+		final boolean periodicity;
+		final int[] table;
+		
+		// Orbit to perturb around in the deepest scenes, or null
+		final ReferenceOrbit reference;
+		
+		// Kernel iterating rows of pixels at once, or null for one at a
+		// time when perturbing or in double-doubles, and its buffers
+		final Kernel kernel;
+		private double[] cx = new double[0];
+		private double[] cy = new double[0];
+		private int[] counts = new int[0];
+		private double[] zx = new double[0];
+		private double[] zy = new double[0];
+		private int[] columns = new int[0];
+		
+		// Whether to iterate in double-doubles, and the low parts of the
+		// top and left edges for doing so
+		final boolean doubleDouble;
+		final double wtl;
+		final double wll;
+		private final double[] dx = new double[2];
+		private final double[] dy = new double[2];
+		
+		// Center offsets, for translating to each pixel's center
+		final double xco;
+		final double yco;
+		
+		// Distance from the top edge to the real axis in half rows, if rows
+		// are measured from it, or -1
+		final int axis;
+		
+		// Pixels iterated, found in the set analytically, or filled
+		int iterated = 0;
+		int shortCircuited = 0;
+		int filled = 0;
+		
+		// Orbits of pixels that reached the limit, or null to not keep them
+		ResumeState undecided = null;
+		private final double[] orbit = new double[2];
+		
+		/**
+		 * Creates a sampler for one worker thread.
+		 * 
+		 * @param reference the orbit to perturb around, or null for none
+		 * @param table the colors of the scene's counts, shared by every
+		 *          sampler of the scene, or null if only counts are taken
+		 */
+		public Sampler(Scene task, ReferenceOrbit reference, int[] table) {
+			this.reference = reference;
+			this.table = table;
+			sdy = task.getVerticalResolution();
+			wt = task.getSeeTop();
+			wl = task.getSeeLeft();
+			sdx = task.getHorizontalResolution();
+			limit = task.getLimit();
+			periodicity = task.isPeriodicityChecking();
+			xco = task.getSeeWidth() / (2 * sdx);
+			yco = task.getSeeHeight() / (2 * sdy);
+			axis = getAxis(task);
+			doubleDouble = task.getArithmetic() == Scene.DOUBLE_DOUBLE;
+			wtl = DoubleDouble.lowPart(task.getExactSeeTop(), wt);
+			wll = DoubleDouble.lowPart(task.getExactSeeLeft(), wl);
+			if (reference != null || doubleDouble) {
+				kernel = null;
+			} else if (task.usesSinglePrecision()
+					&& getFloatKernel() != null) {
+				kernel = getFloatKernel();
+			} else if (task.isVectorized() && VECTOR_KERNEL != null) {
+				kernel = VECTOR_KERNEL;
+			} else {
+				kernel = INTERLEAVED_KERNEL;
+			}
+		}
+		
+		/**
+		 * Stores the iteration counts of the pixels (xs[j], sy), for
+		 * j &lt; length, in <code>ns</code>.
+		 */
+		public void sampleRow(int[] xs, int length, int sy, int[] ns) {
+			
+			if (kernel == null) {
+				for (int j = 0; j < length; ++j) {
+					ns[j] = sample(xs[j], sy);
+				}
+				return;
+			}
+			
+			reserve(length);
+			
+			// Gather the pixels that need iterating
+			final double wy = rowY(2 * sy + 1);
+			int m = 0;
+			for (int j = 0; j < length; ++j) {
+				final double wx = wl + xco * (2 * xs[j] + 1);
+				if (isInMainBulbs(wx, wy)) {
+					++shortCircuited;
+					ns[j] = limit;
+				} else {
+					cx[m] = wx;
+					cy[m] = wy;
+					columns[m++] = j;
+				}
+			}
+			
+			kernel.iterate(cx, cy, m, limit, periodicity, counts, zx, zy);
+			iterated += m;
+			
+			for (int k = 0; k < m; ++k) {
+				final int j = columns[k];
+				ns[j] = counts[k];
+				if (undecided != null) {
+					keep(sy * sdx + xs[j], counts[k], zx[k], zy[k]);
+				}
+			}
+			
+		}
+		
+		/**
+		 * Returns the average color of a grid of <code>samples</code> by
+		 * <code>samples</code> points spread evenly over the pixel
+		 * (sx, sy).
+		 */
+		public int supersample(int sx, int sy, int samples) {
+			
+			int r = 0;
+			int g = 0;
+			int b = 0;
+			int m = 0;
+			reserve(samples * samples);
+			
+			for (int j = 0; j < samples; ++j) {
+				final double oy = 2 * sy + (2 * j + 1) / (double) samples;
+				for (int k = 0; k < samples; ++k) {
+					final double ox = 2 * sx + (2 * k + 1) / (double) samples;
+					int c;
+					if (kernel == null) {
+						c = table[sample(ox, oy, -1)];
+					} else {
 						
-					// Update counter
-					++n;
+						// Gather the points that need iterating
+						final double wx = wl + xco * ox;
+						final double wy = rowY(oy);
+						if (!isInMainBulbs(wx, wy)) {
+							cx[m] = wx;
+							cy[m++] = wy;
+							continue;
+						}
+						++shortCircuited;
+						c = table[limit];
 						
+					}
+					r += c >> 16 & 0xff;
+					g += c >> 8 & 0xff;
+					b += c & 0xff;
 				}
-					
-				// Save results for pixel to buffer
-				if (n == limit || n == 0) {
-					output.setRGB(sx, sy, 0);
+			}
+			
+			if (m > 0) {
+				kernel.iterate(cx, cy, m, limit, periodicity, counts, zx, zy);
+				iterated += m;
+				for (int k = 0; k < m; ++k) {
+					final int c = table[counts[k]];
+					r += c >> 16 & 0xff;
+					g += c >> 8 & 0xff;
+					b += c & 0xff;
+				}
+			}
+			
+			// Round to the nearest shade
+			final int n = samples * samples;
+			return (r + n / 2) / n << 16 | (g + n / 2) / n << 8
+					| (b + n / 2) / n;
+			
+		}
+		
+		/**
+		 * Returns the iteration count of the pixel (sx, sy).
+		 */
+		public int sample(int sx, int sy) {
+			return sample(2 * sx + 1, 2 * sy + 1, sy * sdx + sx);
+		}
+		
+		/**
+		 * Returns the iteration count of the point <code>ox</code> half
+		 * pixels right of the left edge and <code>oy</code> half pixels
+		 * below the top edge.
+		 * 
+		 * @param i the row-major index of the pixel whose orbit to keep if
+		 *          it reaches the limit, or -1 to not keep it
+		 */
+		private int sample(double ox, double oy, int i) {
+			
+			// Calculate offset of this point from the reference, if deep
+			if (reference != null) {
+				++iterated;
+				return reference.iterate(xco * (ox - sdx), yco * (sdy - oy),
+						limit);
+			}
+			
+			// Calculate position of this point in world
+			final double wx = wl + xco * ox;
+			final double wy = rowY(oy);
+			
+			if (isInMainBulbs(wx, wy)) {
+				++shortCircuited;
+				return limit;
+			}
+			
+			++iterated;
+			if (doubleDouble) {
+				DoubleDouble.add(wl, wll, xco * ox, dx);
+				DoubleDouble.add(wt, wtl, -yco * oy, dy);
+				return DoubleDouble.iterate(dx[0], dx[1], dy[0], dy[1], limit,
+						periodicity);
+			}
+			if (undecided == null || i < 0) {
+				return iterate(wx, wy, limit, periodicity);
+			}
+			int n = iterate(wx, wy, wx, wy, 0, limit, periodicity, orbit);
+			keep(i, n, orbit[0], orbit[1]);
+			return n;
+			
+		}
+		
+		/**
+		 * Continues iterating the pixel with row-major index <code>i</code>
+		 * from an orbit saved with a lower limit, and returns its count.
+		 */
+		public int resume(int i, double zx, double zy, int n) {
+			
+			final int sx = i % sdx;
+			final int sy = i / sdx;
+			
+			// Never started, so no better than a fresh sample
+			if (n == 0) {
+				return sample(sx, sy);
+			}
+			
+			++iterated;
+			n = iterate(wl + xco * (2 * sx + 1), rowY(2 * sy + 1), zx, zy, n,
+					limit, periodicity, orbit);
+			keep(i, n, orbit[0], orbit[1]);
+			return n;
+			
+		}
+		
+		/**
+		 * Records that the pixel with row-major index <code>i</code> was
+		 * filled with the limit without being iterated, so that it may be
+		 * iterated when resuming.
+		 */
+		public void keepUnstarted(int i) {
+			if (undecided != null) {
+				undecided.add(i, 0, 0, 0);
+			}
+		}
+		
+		/**
+		 * Returns the imaginary part of the points <code>oy</code> half
+		 * pixels below the top edge. Rows aligned with the real axis are
+		 * measured from it, so that mirrored rows have exactly opposite
+		 * values.
+		 */
+		private double rowY(double oy) {
+			return (axis < 0) ? wt - yco * oy : yco * (axis - oy);
+		}
+		
+		/**
+		 * Makes room for iterating <code>length</code> points with the
+		 * kernel.
+		 */
+		private void reserve(int length) {
+			if (cx.length < length) {
+				cx = new double[length];
+				cy = new double[length];
+				counts = new int[length];
+				zx = new double[length];
+				zy = new double[length];
+				columns = new int[length];
+			}
+		}
+		
+		/**
+		 * Returns true if the point is inside the main cardioid or the
+		 * period-2 bulb. Such points never escape, so they are not iterated.
+		 */
+		private static boolean isInMainBulbs(double wx, double wy) {
+			final double wy2 = wy * wy;
+			final double qx = wx - 0.25;
+			final double q = qx * qx + wy2;
+			return q * (q + qx) <= 0.25 * wy2
+					|| (wx + 1) * (wx + 1) + wy2 <= 0.0625;
+		}
+		
+		/**
+		 * Saves the final z of a pixel's orbit if it reached the limit
+		 * without a cycle being found.
+		 */
+		private void keep(int i, int n, double x, double y) {
+			if (n == limit && !Double.isNaN(x)) {
+				undecided.add(i, x, y, n);
+			}
+		}
+		
+	}
+	
+	/**
+	 * The work shared by every thread of the pool while rendering a scene.
+	 * Each thread repeatedly takes the next unrendered tile, so the load
+	 * balances itself no matter how uneven the cost of tiles is.
+	 */
+	private class TileJob implements Runnable {
+		
+		private final Scene task;
+		private final ReferenceOrbit reference;
+		private final int[] table;
+		private final int[] counts;
+		private final int[] output;
+		private final BufferedImage image;
+		private final boolean subdividing;
+		private final int step;
+		private final boolean reuse;
+		private final float progressBase;
+		private final float progressSpan;
+		private final ResumeState undecided;
+		private final int tileSize;
+		private final int columns;
+		private final int firstRow;
+		private final int tileCount;
+		private final int top;
+		private final int bottom;
+		private final int axis;
+		private final boolean[] reused;
+		
+		/*
+		 * The following variables are guarded by this object's monitor.
+		 */
+		
+		private int nextTile = 0;
+		private int finishedTiles = 0;
+		private int iterated = 0;
+		private int shortCircuited = 0;
+		private int filled = 0;
+		private boolean aborted = false;
+		
+		/**
+		 * Creates a job for one pass over the scene.
+		 * 
+		 * @param reference the orbit to perturb around, or null for none
+		 * @param table the colors of the scene's counts
+		 * @param image the image sharing <code>output</code>, sent with
+		 *          each finished tile
+		 * @param step the distance between sampled pixels
+		 * @param reuse true to skip pixels sampled by the previous pass
+		 * @param undecided receives the orbits of pixels that reach the
+		 *          limit, or null to not keep them
+		 * @param progressBase the completed ratio before this pass
+		 * @param progressSpan the share of the rendering this pass makes up
+		 * @param top the first row to render
+		 * @param bottom the row after the last to render
+		 * @param axis the distance from the top edge to the real axis in
+		 *          half rows, or -1 to not mirror rows across it
+		 * @param reused whether each tile, in row-major order, was taken
+		 *          from the tile cache and is only mirrored, or null if
+		 *          none were
+		 */
+		public TileJob(Scene task, ReferenceOrbit reference, int[] table,
+				int[] counts, int[] output, BufferedImage image, int step,
+				boolean reuse, ResumeState undecided, float progressBase,
+				float progressSpan, int top, int bottom, int axis,
+				boolean[] reused) {
+			this.task = task;
+			this.reference = reference;
+			this.table = table;
+			this.undecided = undecided;
+			this.counts = counts;
+			this.output = output;
+			this.image = image;
+			this.step = step;
+			this.reuse = reuse;
+			this.progressBase = progressBase;
+			this.progressSpan = progressSpan;
+			this.top = top;
+			this.bottom = bottom;
+			this.axis = axis;
+			this.reused = reused;
+			subdividing = task.isSubdividing() && step == 1;
+			tileSize = subdividing ? SUBDIVISION_TILE_SIZE : TILE_SIZE;
+			columns = (task.getHorizontalResolution() + tileSize - 1)
+					/ tileSize;
+			firstRow = top / tileSize;
+			tileCount = columns
+					* ((bottom + tileSize - 1) / tileSize - firstRow);
+		}
+		
+		public void run() {
+			final int sdx = task.getHorizontalResolution();
+			final int sdy = task.getVerticalResolution();
+			Sampler sampler = new Sampler(task, reference, table);
+			if (undecided != null) {
+				sampler.undecided = new ResumeState(task.getLimit());
+			}
+			int tile;
+			while ((tile = takeTile()) >= 0) {
+				int x0 = (tile % columns) * tileSize;
+				int y0 = (firstRow + tile / columns) * tileSize;
+				int x1 = Math.min(sdx, x0 + tileSize);
+				int y1 = Math.min(bottom, y0 + tileSize);
+				boolean cached = reused != null
+						&& reused[(firstRow + tile / columns) * columns
+								+ tile % columns];
+				y0 = Math.max(top, y0);
+				if (cached) {
+					// Already complete
+				} else if (subdividing) {
+					subdivideTile(sampler, counts, output, x0, y0, x1, y1);
 				} else {
-					output.setRGB(sx, sy, 0xffffff / limit * n);
+					renderTile(sampler, counts, output, x0, y0, x1, y1,
+							step, reuse);
 				}
-										
+				if (axis >= 0) {
+					mirrorTile(x0, y0, x1, y1, sdx, sdy);
+				}
+				finishTile(x0, y0, x1, y1, sdy);
 			}
-
-			// Check our status so the thread can switch tasks quickly
+			
+			// Merge this thread's statistics
 			synchronized (this) {
-				if (synchronizedTask != task) {
-					// A new task; break out
-					return; 
+				iterated += sampler.iterated;
+				shortCircuited += sampler.shortCircuited;
+				filled += sampler.filled;
+				if (undecided != null) {
+					undecided.addAll(sampler.undecided);
 				}
 			}
-				
+		}
+		
+		/**
+		 * Copies the rows of a tile to their mirror images across the real
+		 * axis, where those are not rendered themselves.
+		 */
+		private void mirrorTile(int x0, int y0, int x1, int y1, int sdx,
+				int sdy) {
+			for (int sy = y0; sy < y1; ++sy) {
+				int my = axis - 1 - sy;
+				if ((my < top || my >= bottom) && my >= 0 && my < sdy) {
+					System.arraycopy(counts, sy * sdx + x0, counts,
+							my * sdx + x0, x1 - x0);
+					System.arraycopy(output, sy * sdx + x0, output,
+							my * sdx + x0, x1 - x0);
+				}
+			}
+		}
+		
+		/**
+		 * Returns the index of the next tile to render, or -1 if the scene
+		 * is finished or has been replaced by a new task.
+		 */
+		private synchronized int takeTile() {
+			if (aborted || nextTile == tileCount) {
+				return -1;
+			}
+			
+			// Check our status so the threads can switch tasks quickly
+			if (!isCurrent(task)) {
+				aborted = true;
+				return -1;
+			}
+			
+			return nextTile++;
+		}
+		
+		/**
+		 * Counts a tile as finished and sends the client its pixels, and
+		 * their mirror images if any.
+		 */
+		private void finishTile(int x0, int y0, int x1, int y1, int sdy) {
+			int finished;
+			synchronized (this) {
+				finished = ++finishedTiles;
+			}
+			
+			Rectangle[] dirty;
+			int my0 = Math.max(0, axis - y1);
+			int my1 = Math.min(sdy, axis - y0);
+			if (axis >= 0 && my0 < my1) {
+				dirty = new Rectangle[] {
+						new Rectangle(x0, y0, x1 - x0, y1 - y0),
+						new Rectangle(x0, my0, x1 - x0, my1 - my0)};
+			} else {
+				dirty = new Rectangle[] {
+						new Rectangle(x0, y0, x1 - x0, y1 - y0)};
+			}
+			
 			// Notify client
-			fireRenderingEvent(new RenderingEvent(this, task, 
-					(sx + 1) / (float) sdx, false));
-				
+			if (finished < tileCount) {
+				fireRenderingEvent(new RenderingEvent(RenderingDaemon.this,
+						task, progressBase
+						+ progressSpan * finished / tileCount, false,
+						image, dirty));
+			}
 		}
-				
-		task.setImage(output);
+		
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
+		
+		public synchronized int getIteratedPixels() {
+			return iterated;
+		}
+		
+		public synchronized int getShortCircuitedPixels() {
+			return shortCircuited;
+		}
+		
+		public synchronized int getFilledPixels() {
+			return filled;
+		}
+		
+	}
+		
+	/**
+	 * The work shared by every thread of the pool while resuming the
+	 * undecided orbits of a scene. Threads take runs of orbits in turn.
+	 */
+	private class ResumeJob implements Runnable {
+		
+		private final Scene task;
+		private final ResumeState base;
+		private final int[] counts;
+		private final ResumeState undecided;
+		
+		/*
+		 * The following variables are guarded by this object's monitor.
+		 */
+		
+		private int nextEntry = 0;
+		private int finishedEntries = 0;
+		private int iterated = 0;
+		private int shortCircuited = 0;
+		private boolean aborted = false;
+		
+		public ResumeJob(Scene task, ResumeState base, int[] counts,
+				ResumeState undecided) {
+			this.task = task;
+			this.base = base;
+			this.counts = counts;
+			this.undecided = undecided;
+		}
+		
+		public void run() {
+			Sampler sampler = new Sampler(task, null, null);
+			sampler.undecided = new ResumeState(task.getLimit());
+			int e0;
+			while ((e0 = takeEntries()) >= 0) {
+				int e1 = Math.min(base.size(), e0 + RESUME_CHUNK);
+				for (int e = e0; e < e1; ++e) {
+					int i = base.getIndex(e);
+					counts[i] = sampler.resume(i, base.getX(e), base.getY(e),
+							base.getCount(e));
+				}
+				finishEntries(e1 - e0);
+			}
 			
-		// Notify client
-		fireRenderingEvent(new RenderingEvent(this, task, 1.0f, true));
+			// Merge this thread's results
+			synchronized (this) {
+				iterated += sampler.iterated;
+				shortCircuited += sampler.shortCircuited;
+				undecided.addAll(sampler.undecided);
+			}
+		}
+		
+		/**
+		 * Returns the first of the next run of orbits to resume, or -1 if
+		 * the scene is finished or has been replaced by a new task.
+		 */
+		private synchronized int takeEntries() {
+			if (aborted || nextEntry >= base.size()) {
+				return -1;
+			}
+			if (!isCurrent(task)) {
+				aborted = true;
+				return -1;
+			}
+			int e0 = nextEntry;
+			nextEntry += RESUME_CHUNK;
+			return e0;
+		}
+		
+		private void finishEntries(int entries) {
+			int finished;
+			synchronized (this) {
+				finished = finishedEntries += entries;
+			}
+			
+			// Notify client
+			fireRenderingEvent(new RenderingEvent(RenderingDaemon.this,
+					task, finished / (float) base.size(), false));
+		}
+		
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
+		
+		public synchronized int getIteratedPixels() {
+			return iterated;
+		}
+		
+		public synchronized int getShortCircuitedPixels() {
+			return shortCircuited;
+		}
+		
+	}
+	
+	/**
+	 * The work shared by every thread of the pool while coloring a scene
+	 * from its iteration counts. Threads take bands of rows in turn.
+	 */
+	private class ColorJob implements Runnable {
+		
+		private final Scene task;
+		private final int[] counts;
+		private final int[] output;
+		private final int[] table;
+		private final int sdx;
+		private final int sdy;
+		
+		/*
+		 * The following variables are guarded by this object's monitor.
+		 */
+		
+		private int nextRow = 0;
+		private boolean aborted = false;
+		
+		public ColorJob(Scene task, int[] table, int[] counts,
+				int[] output) {
+			this.task = task;
+			this.table = table;
+			this.counts = counts;
+			this.output = output;
+			sdx = task.getHorizontalResolution();
+			sdy = task.getVerticalResolution();
+		}
+		
+		public void run() {
+			int y0;
+			while ((y0 = takeRows()) >= 0) {
+				int end = Math.min(sdy, y0 + TILE_SIZE) * sdx;
+				for (int i = y0 * sdx; i < end; ++i) {
+					output[i] = table[counts[i]];
+				}
+			}
+		}
+		
+		/**
+		 * Returns the first of the next band of rows to color, or -1 if the
+		 * scene is finished or has been replaced by a new task.
+		 */
+		private synchronized int takeRows() {
+			if (aborted || nextRow >= sdy) {
+				return -1;
+			}
+			if (!isCurrent(task)) {
+				aborted = true;
+				return -1;
+			}
+			int y0 = nextRow;
+			nextRow += TILE_SIZE;
+			return y0;
+		}
+		
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
 		
 	}
+	
+	/**
+	 * The work shared by every thread of the pool while supersampling the
+	 * edges of a scene. Threads take bands of rows in turn.
+	 */
+	private class AntialiasJob implements Runnable {
+		
+		private final Scene task;
+		private final ReferenceOrbit reference;
+		private final int[] table;
+		private final int[] counts;
+		private final int[] output;
+		private final BufferedImage image;
+		private final float progressBase;
+		private final int samples;
+		private final int threshold;
+		private final int sdx;
+		private final int sdy;
+		
+		/*
+		 * The following variables are guarded by this object's monitor.
+		 */
+		
+		private int nextRow = 0;
+		private int finishedRows = 0;
+		private int supersampled = 0;
+		private boolean aborted = false;
+		
+		/**
+		 * Creates a job that completes the progress of a scene.
+		 * 
+		 * @param reference the orbit to perturb around, or null for none
+		 * @param table the colors of the scene's counts
+		 * @param image the image sharing <code>output</code>, sent with
+		 *          each finished band of rows
+		 * @param progressBase the completed ratio before this job
+		 */
+		public AntialiasJob(Scene task, ReferenceOrbit reference,
+				int[] table, int[] counts, int[] output, BufferedImage image,
+				float progressBase) {
+			this.task = task;
+			this.reference = reference;
+			this.table = table;
+			this.counts = counts;
+			this.output = output;
+			this.image = image;
+			this.progressBase = progressBase;
+			samples = task.getAntialiasing();
+			threshold = task.getAntialiasingThreshold();
+			sdx = task.getHorizontalResolution();
+			sdy = task.getVerticalResolution();
+		}
+		
+		public void run() {
+			Sampler sampler = new Sampler(task, reference, table);
+			int edges = 0;
+			int y0;
+			while ((y0 = takeRows()) >= 0) {
+				int y1 = Math.min(sdy, y0 + TILE_SIZE);
+				for (int sy = y0; sy < y1; ++sy) {
+					for (int sx = 0, i = sy * sdx; sx < sdx; ++sx, ++i) {
+						if (isEdge(i, sx, sy)) {
+							output[i] = sampler.supersample(sx, sy, samples);
+							++edges;
+						}
+					}
+				}
+				finishRows(y0, y1);
+			}
+			
+			// Merge this thread's statistics
+			synchronized (this) {
+				supersampled += edges;
+			}
+		}
+		
+		/**
+		 * Returns true if the count of the pixel with row-major index
+		 * <code>i</code> differs from that of a neighbor by more than the
+		 * threshold.
+		 */
+		private boolean isEdge(int i, int sx, int sy) {
+			final int n = counts[i];
+			return (sx > 0 && Math.abs(counts[i - 1] - n) > threshold)
+					|| (sx + 1 < sdx && Math.abs(counts[i + 1] - n) > threshold)
+					|| (sy > 0 && Math.abs(counts[i - sdx] - n) > threshold)
+					|| (sy + 1 < sdy
+							&& Math.abs(counts[i + sdx] - n) > threshold);
+		}
+		
+		/**
+		 * Returns the first of the next band of rows to supersample, or -1
+		 * if the scene is finished or has been replaced by a new task.
+		 */
+		private synchronized int takeRows() {
+			if (aborted || nextRow >= sdy) {
+				return -1;
+			}
+			if (!isCurrent(task)) {
+				aborted = true;
+				return -1;
+			}
+			int y0 = nextRow;
+			nextRow += TILE_SIZE;
+			return y0;
+		}
+		
+		private void finishRows(int y0, int y1) {
+			int finished;
+			synchronized (this) {
+				finished = finishedRows += y1 - y0;
+			}
+			
+			// Notify client
+			if (finished < sdy) {
+				fireRenderingEvent(new RenderingEvent(RenderingDaemon.this,
+						task, progressBase + (1 - progressBase) * finished
+						/ sdy, false, image, new Rectangle[] {
+								new Rectangle(0, y0, sdx, y1 - y0)}));
+			}
+		}
+		
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
 		
+		public synchronized int getSupersampledPixels() {
+			return supersampled;
+		}
+		
+	}
+	
 	private void fireRenderingEvent(RenderingEvent e) {
-		if (fireEventsOnAWT) {
-			final RenderingEvent fe = e;
-			SwingUtilities.invokeLater(new Runnable() {
+		if (!fireEventsOnAWT) {
+			listener.renderingProgress(e);
+			return;
+		}
+		
+		synchronized (eventLock) {
+			
+			// Completion is delivered at once, and makes the progress still
+			// waiting for the same scene moot
+			if (e.isComplete()) {
+				if (pendingEvent != null
+						&& pendingEvent.getTask() == e.getTask()) {
+					pendingEvent = null;
+					++droppedEvents;
+				}
+				final RenderingEvent fe = e;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						listener.renderingProgress(fe);
+					}
+				});
+				return;
+			}
+			
+			// Progress joins whatever is waiting, and is delivered once the
+			// interval since the last delivery has passed
+			if (pendingEvent != null) {
+				pendingEvent = merge(pendingEvent, e);
+				++droppedEvents;
+			} else {
+				pendingEvent = e;
+			}
+			if (eventScheduled) {
+				return;
+			}
+			eventScheduled = true;
+			long delay = lastEventTime + eventInterval - System.nanoTime();
+			final Runnable delivery = new Runnable() {
 				public void run() {
-					listener.renderingProgress(fe);
+					deliverPendingEvent();
 				}
-			});
-		} else {
+			};
+			if (delay <= 0) {
+				SwingUtilities.invokeLater(delivery);
+			} else {
+				if (eventTimer == null) {
+					eventTimer = new Timer(true);
+				}
+				eventTimer.schedule(new TimerTask() {
+					public void run() {
+						SwingUtilities.invokeLater(delivery);
+					}
+				}, Math.max(1, delay / 1000000));
+			}
+			
+		}
+	}
+	
+	/**
+	 * Delivers the progress event waiting for the AWT Event Dispatch
+	 * thread, if completion has not made it moot. Called on that thread.
+	 */
+	private void deliverPendingEvent() {
+		RenderingEvent e;
+		synchronized (eventLock) {
+			e = pendingEvent;
+			pendingEvent = null;
+			eventScheduled = false;
+			lastEventTime = System.nanoTime();
+		}
+		if (e != null) {
 			listener.renderingProgress(e);
 		}
 	}
 	
+	/**
+	 * Combines two progress events into one that reports what both did. An
+	 * event for another scene replaces the earlier one.
+	 */
+	private RenderingEvent merge(RenderingEvent earlier,
+			RenderingEvent later) {
+		
+		if (earlier.getTask() != later.getTask()) {
+			return later;
+		}
+		
+		// The regions drawn by both, unless either event replaced the
+		// preview or did not say what it drew
+		Image preview = later.getPreview();
+		Rectangle[] a = earlier.getDirtyRegions();
+		Rectangle[] b = later.getDirtyRegions();
+		Rectangle[] dirty = null;
+		if (preview == null) {
+			preview = earlier.getPreview();
+			dirty = a;
+		} else if (earlier.getPreview() == preview && a != null
+				&& b != null) {
+			dirty = new Rectangle[a.length + b.length];
+			System.arraycopy(a, 0, dirty, 0, a.length);
+			System.arraycopy(b, 0, dirty, a.length, b.length);
+		}
+		
+		return new RenderingEvent(this, later.getTask(),
+				Math.max(earlier.getCompletedRatio(),
+						later.getCompletedRatio()), false, preview, dirty);
+		
+	}
+	
 }
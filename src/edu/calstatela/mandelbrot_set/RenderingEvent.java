@@ -10,6 +10,8 @@
 
 package edu.calstatela.mandelbrot_set;
 
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.util.EventObject;
 
 /**
@@ -20,9 +22,55 @@ public class RenderingEvent extends EventObject {
 	private final Scene task;
 	private final float completed;
 	private final boolean isComplete; 
+	private final Image preview;
+	private final Rectangle[] dirty;
+	private final Throwable failure;
 
 	public RenderingEvent(Object source, Scene task,
 			float completedRatio, boolean isComplete) {
+		this(source, task, completedRatio, isComplete, null);
+	}
+	
+	/**
+	 * Constructs an event that carries an intermediate image.
+	 * 
+	 * @param preview a displayable, lower quality version of the image
+	 *          being rendered, or null for none
+	 */
+	public RenderingEvent(Object source, Scene task,
+			float completedRatio, boolean isComplete, Image preview) {
+		this(source, task, completedRatio, isComplete, preview, null);
+	}
+	
+	/**
+	 * Constructs an event that carries an intermediate image and the parts
+	 * of it that have changed.
+	 * 
+	 * @param preview a displayable, lower quality version of the image
+	 *          being rendered, or null for none
+	 * @param dirty the rectangles of the preview drawn since the renderer
+	 *          last reported them, or null if all of it may have changed
+	 */
+	public RenderingEvent(Object source, Scene task,
+			float completedRatio, boolean isComplete, Image preview,
+			Rectangle[] dirty) {
+		this(source, task, completedRatio, isComplete, preview, dirty, null);
+	}
+	
+	/**
+	 * Constructs an event reporting that a scene could not be rendered.
+	 * The scene is left without a new image, and the renderer goes on to
+	 * the next one.
+	 * 
+	 * @param failure what was thrown while rendering the scene
+	 */
+	public RenderingEvent(Object source, Scene task, Throwable failure) {
+		this(source, task, 1.0f, true, null, null, failure);
+	}
+	
+	private RenderingEvent(Object source, Scene task,
+			float completedRatio, boolean isComplete, Image preview,
+			Rectangle[] dirty, Throwable failure) {
 		super (source);
 		
 		if (task == null) {
@@ -32,6 +80,9 @@ public class RenderingEvent extends EventObject {
 		this.task = task;
 		this.completed = completedRatio;
 		this.isComplete = isComplete;
+		this.preview = preview;
+		this.dirty = dirty;
+		this.failure = failure;
 		
 	}
 	
@@ -46,5 +97,31 @@ public class RenderingEvent extends EventObject {
 	public boolean isComplete() {
 		return isComplete;
 	}
+	
+	/**
+	 * Returns an intermediate image of the scene, or null if this event
+	 * does not carry one. The renderer may keep drawing into it, so it
+	 * only gets more accurate over time.
+	 */
+	public Image getPreview() {
+		return preview;
+	}
+	
+	/**
+	 * Returns the rectangles of the intermediate image, in its pixels,
+	 * that changed just before this event, or null if any part of it may
+	 * have changed.
+	 */
+	public Rectangle[] getDirtyRegions() {
+		return dirty;
+	}
+	
+	/**
+	 * Returns what was thrown while rendering the scene, or null if it
+	 * was rendered. Only completion events carry a failure.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
 
 }
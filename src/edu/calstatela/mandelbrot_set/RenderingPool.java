@@ -0,0 +1,138 @@
+/*
+ * RenderingPool.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+/**
+ * A fixed set of worker threads used by the {@link RenderingDaemon} to
+ * spread a scene across several processors. The pool has no queue of its
+ * own; instead, {@link #invokeAll(Runnable)} hands the same piece of work
+ * to every thread, and that work is expected to pull small units (tiles,
+ * rows) from a shared cursor until none remain. Threads that draw cheap
+ * regions far from the set simply take more units.
+ *
+ * @author Matthew Nelson
+ */
+class RenderingPool {
+
+	private final Thread[] workers;
+
+	/*
+	 * The following variables describe the work in progress. They are
+	 * guarded by this object's monitor.
+	 */
+
+	private Runnable work = null;
+	private int generation = 0;
+	private int running = 0;
+	private Throwable failure = null;
+
+	/**
+	 * Starts a new pool. Worker threads inherit the priority of the
+	 * calling thread and never keep the VM alive.
+	 *
+	 * @param threads the number of worker threads
+	 * @throws IllegalArgumentException if <code>threads</code> is
+	 *           nonpositive
+	 */
+	public RenderingPool(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("nonpositive thread count");
+		}
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Thread(worker, "RenderingPool-" + i); //$NON-NLS-1$
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads in this pool.
+	 */
+	public int getThreadCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Runs <code>r</code> once on every worker thread, and waits until all
+	 * of them have returned. Only one thread may call this method at a time.
+	 *
+	 * @param r the work to perform
+	 * @throws RuntimeException if any worker failed, the first such failure
+	 * @throws Error if any worker failed with an error, such as running
+	 *           out of memory, the first such failure
+	 */
+	public synchronized void invokeAll(Runnable r) {
+		work = r;
+		running = workers.length;
+		failure = null;
+		++generation;
+		notifyAll();
+		while (running > 0) {
+			try {
+				wait();
+			} catch (InterruptedException unused) {}
+		}
+		work = null;
+		if (failure != null) {
+			Throwable e = failure;
+			failure = null;
+			if (e instanceof Error) {
+				throw (Error) e;
+			}
+			throw (RuntimeException) e;
+		}
+	}
+
+	/**
+	 * The loop executed by every worker thread.
+	 */
+	private final Runnable worker = new Runnable() {
+		public void run() {
+			int seen = 0;
+			while (true) {
+
+				// Wait for the next generation of work
+				Runnable r;
+				synchronized (RenderingPool.this) {
+					while (generation == seen) {
+						try {
+							RenderingPool.this.wait();
+						} catch (InterruptedException unused) {}
+					}
+					seen = generation;
+					r = work;
+				}
+
+				// Errors are caught too, so that the worker survives to
+				// report back and invokeAll does not wait forever
+				Throwable e = null;
+				try {
+					r.run();
+				} catch (RuntimeException re) {
+					e = re;
+				} catch (Error er) {
+					e = er;
+				}
+
+				// Report back to invokeAll
+				synchronized (RenderingPool.this) {
+					if (e != null && failure == null) {
+						failure = e;
+					}
+					if (--running == 0) {
+						RenderingPool.this.notifyAll();
+					}
+				}
+
+			}
+		}
+	};
+
+}
@@ -0,0 +1,120 @@
+/*
+ * ResumeState.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+/**
+ * The orbits of the pixels of a scene that reached the iteration limit
+ * without being proven to be in the set. Each entry stores a pixel's last
+ * value of z and its iteration count, so that a scene with a higher limit
+ * can continue iterating from there instead of starting over. Entries with
+ * a count of zero were never iterated at all.
+ * <p>
+ * Instances are not synchronized; each rendering thread fills its own and
+ * they are merged afterwards.
+ *
+ * @author Matthew Nelson
+ */
+class ResumeState {
+
+	private final int limit;
+	private int size = 0;
+	private int[] index = new int[16];
+	private double[] zx = new double[16];
+	private double[] zy = new double[16];
+	private int[] n = new int[16];
+
+	/**
+	 * Creates an empty state for a scene.
+	 *
+	 * @param limit the iteration limit of the scene
+	 */
+	public ResumeState(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Adds a pixel's orbit.
+	 *
+	 * @param i the pixel's row-major index
+	 * @param x the real part of z
+	 * @param y the imaginary part of z
+	 * @param count the number of iterations performed
+	 */
+	public void add(int i, double x, double y, int count) {
+		if (size == index.length) {
+			grow(size * 2);
+		}
+		index[size] = i;
+		zx[size] = x;
+		zy[size] = y;
+		n[size] = count;
+		++size;
+	}
+
+	/**
+	 * Adds every orbit of another state to this one.
+	 */
+	public void addAll(ResumeState other) {
+		if (size + other.size > index.length) {
+			grow(Math.max(size * 2, size + other.size));
+		}
+		System.arraycopy(other.index, 0, index, size, other.size);
+		System.arraycopy(other.zx, 0, zx, size, other.size);
+		System.arraycopy(other.zy, 0, zy, size, other.size);
+		System.arraycopy(other.n, 0, n, size, other.size);
+		size += other.size;
+	}
+
+	private void grow(int capacity) {
+		int[] newIndex = new int[capacity];
+		double[] newZx = new double[capacity];
+		double[] newZy = new double[capacity];
+		int[] newN = new int[capacity];
+		System.arraycopy(index, 0, newIndex, 0, size);
+		System.arraycopy(zx, 0, newZx, 0, size);
+		System.arraycopy(zy, 0, newZy, 0, size);
+		System.arraycopy(n, 0, newN, 0, size);
+		index = newIndex;
+		zx = newZx;
+		zy = newZy;
+		n = newN;
+	}
+
+	/**
+	 * Returns the approximate number of bytes held by this state.
+	 */
+	public long getDataSize() {
+		return 24L * index.length;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getIndex(int entry) {
+		return index[entry];
+	}
+
+	public double getX(int entry) {
+		return zx[entry];
+	}
+
+	public double getY(int entry) {
+		return zy[entry];
+	}
+
+	public int getCount(int entry) {
+		return n[entry];
+	}
+
+}
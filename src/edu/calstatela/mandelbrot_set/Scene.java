@@ -11,12 +11,55 @@
 package edu.calstatela.mandelbrot_set;
 
 import java.awt.Image;
-import java.lang.ref.SoftReference;
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 
 /**
  * @author Matthew Nelson
  */
 class Scene {
+	
+	/**
+	 * Iterate pixels in doubles. See {@link #getArithmetic()}.
+	 */
+	public static final int DOUBLE = 0;
+	
+	/**
+	 * Iterate pixels in double-double arithmetic.
+	 */
+	public static final int DOUBLE_DOUBLE = 1;
+	
+	/**
+	 * Iterate pixels by perturbation around an exact reference orbit.
+	 */
+	public static final int PERTURBATION = 2;
+	
+	/**
+	 * The pixel size, relative to the largest coordinate, below which
+	 * views are rendered in double-double arithmetic.
+	 */
+	private static final double DOUBLE_DOUBLE_THRESHOLD = 0x1p-42;
+	
+	/**
+	 * The pixel size, relative to the largest coordinate, below which
+	 * views are rendered by perturbation.
+	 */
+	private static final double PERTURBATION_THRESHOLD = 0x1p-64;
+	
+	/**
+	 * The pixel size, relative to the largest coordinate, above which
+	 * views may be iterated in floats first.
+	 */
+	private static final double SINGLE_PRECISION_THRESHOLD = 0x1p-14;
+	
+	/**
+	 * The level of scenes whose pixels are not on the shared grid. See
+	 * {@link #createAligned(int, int, int, BigDecimal, BigDecimal,
+	 * BigDecimal, BigDecimal)}.
+	 */
+	private static final int UNALIGNED = Integer.MIN_VALUE;
 
 	/*
 	 * The following variables are used by the RenderingDaemon. They describe
@@ -27,6 +70,18 @@ class Scene {
 	private final double bottom;
 	private final double left;
 	private final double right;
+	
+	/*
+	 * The following variables hold the same world window exactly, for
+	 * views too deep for the precision of a double.
+	 */
+	
+	private final BigDecimal exactTop;
+	private final BigDecimal exactBottom;
+	private final BigDecimal exactLeft;
+	private final BigDecimal exactRight;
+	private final double width;
+	private final double height;
 
 	/*
 	 * The following variables serve two purposes. The RenderingDaemon uses
@@ -38,6 +93,34 @@ class Scene {
 	private final int vRes;
 	private final int limit;
 	
+	/*
+	 * The following variables record the screen size a scene is made for,
+	 * which differs from its resolution on the grid, and the power of two
+	 * of its pixel size there.
+	 */
+	
+	private final int frameWidth;
+	private final int frameHeight;
+	private final int level;
+	
+	/*
+	 * The following variables select optional optimizations used by the
+	 * RenderingDaemon.
+	 */
+	
+	private boolean periodicity = true;
+	private boolean subdividing = false;
+	private boolean progressive = true;
+	private boolean resumable = false;
+	private boolean seriesApproximation = true;
+	private boolean vectorized = false;
+	private boolean singlePrecision = false;
+	private boolean mirroring = true;
+	private boolean persistent = true;
+	private boolean indexed = false;
+	private int antialiasing = 1;
+	private int antialiasingThreshold = 1;
+	
 	/*
 	 * The following variables are used by MandelbrotPanel for computing
 	 * frames derived from this one.
@@ -47,60 +130,336 @@ class Scene {
 	private final double lookBottom;
 	private final double lookLeft;
 	private final double lookRight;
+	private final BigDecimal exactLookTop;
+	private final BigDecimal exactLookBottom;
+	private final BigDecimal exactLookLeft;
+	private final BigDecimal exactLookRight;
 	
 	/*
-	 * The following variable stores the finalized image when available.
+	 * The following variables store the finalized image and the iteration
+	 * counts it was colored from, when available.
 	 */
 
 	private Image output = null;
-	private SoftReference outputReference = null;
+	private int[] counts = null;
+	private Palette palette = Palette.LINEAR;
+	private int cycle = 0;
+	
+	/*
+	 * The following variables store the counts, and the pixels of an
+	 * antialiased image, compressed while this scene is off screen.
+	 */
+	
+	private PackedInts packedCounts = null;
+	private PackedInts packedPixels = null;
+	
+	/*
+	 * The following variables store the orbits of pixels that reached the
+	 * limit, when kept, and those of a scene of the same view with a lower
+	 * limit that this scene may continue from.
+	 */
+	
+	private ResumeState resumeState = null;
+	private ResumeState resumeBase = null;
+	private int[] resumeBaseCounts = null;
+	
+	/*
+	 * The following variables record statistics about the finished
+	 * rendering, for measuring the effect of optimizations.
+	 */
+	
+	private int iterated = 0;
+	private int shortCircuited = 0;
+	private int filled = 0;
+	private int mirrored = 0;
+	private int supersampled = 0;
+	private int reused = 0;
 	
 	/**
 	 * Constructs a new rendering job.
 	 * 
-	 * @param top the upper world coordinate
-	 * @param bottom the lower world coordinate
-	 * @param left the left world coordinate
-	 * @param right the right world coordinate
 	 * @param hRes the number of pixels spanning horizontally
 	 * @param vRes the number of pixels spanning vertically
+	 * @param limit the maximum number of iterations
+	 * @param lookTop the upper world coordinate
+	 * @param lookBottom the lower world coordinate
+	 * @param lookLeft the left world coordinate
+	 * @param lookRight the right world coordinate
 	 * @throws IllegalArgumentException if any resolution is nonpositive
 	 */
 	public Scene(int hRes, int vRes, int limit, double lookTop,
 			double lookBottom, double lookLeft, double lookRight) {
+		this(hRes, vRes, limit, new BigDecimal(lookTop),
+				new BigDecimal(lookBottom), new BigDecimal(lookLeft),
+				new BigDecimal(lookRight));
+	}
+	
+	/**
+	 * Constructs a new rendering job from exact world coordinates. Views
+	 * deeper than a double can resolve must be built this way.
+	 * 
+	 * @param hRes the number of pixels spanning horizontally
+	 * @param vRes the number of pixels spanning vertically
+	 * @param limit the maximum number of iterations
+	 * @param lookTop the upper world coordinate
+	 * @param lookBottom the lower world coordinate
+	 * @param lookLeft the left world coordinate
+	 * @param lookRight the right world coordinate
+	 * @throws IllegalArgumentException if any resolution is nonpositive
+	 */
+	public Scene(int hRes, int vRes, int limit, BigDecimal lookTop,
+			BigDecimal lookBottom, BigDecimal lookLeft,
+			BigDecimal lookRight) {
+		this(hRes, vRes, limit, expand(hRes, vRes, lookTop, lookBottom,
+				lookLeft, lookRight), lookTop, lookBottom, lookLeft,
+				lookRight, UNALIGNED, hRes, vRes);
+	}
+	
+	/**
+	 * Constructs a scene from its world window and requested view.
+	 * 
+	 * @param see the world window, as { top, bottom, left, right }
+	 * @param level the pixel size is 2^-level, or <code>UNALIGNED</code>
+	 *          to round the window to the precision needed to resolve a
+	 *          pixel
+	 * @param frameWidth the width of the screen the scene is made for
+	 * @param frameHeight the height of the screen the scene is made for
+	 */
+	private Scene(int hRes, int vRes, int limit, BigDecimal[] see,
+			BigDecimal lookTop, BigDecimal lookBottom, BigDecimal lookLeft,
+			BigDecimal lookRight, int level, int frameWidth,
+			int frameHeight) {
 		
 		if (hRes <= 0 || vRes <= 0 || limit <= 0) {
 			throw new IllegalArgumentException("nonpositive resolution");
 		}
 		
-		this.lookTop = lookTop;
-		this.lookBottom = lookBottom;
-		this.lookLeft = lookLeft;
-		this.lookRight = lookRight;
+		this.lookTop = lookTop.doubleValue();
+		this.lookBottom = lookBottom.doubleValue();
+		this.lookLeft = lookLeft.doubleValue();
+		this.lookRight = lookRight.doubleValue();
 		this.hRes = hRes;
 		this.vRes = vRes;
 		this.limit = limit;
-
+		this.level = level;
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+		
+		BigDecimal top = see[0];
+		BigDecimal bottom = see[1];
+		BigDecimal left = see[2];
+		BigDecimal right = see[3];
+		this.top = top.doubleValue();
+		this.bottom = bottom.doubleValue();
+		this.left = left.doubleValue();
+		this.right = right.doubleValue();
+		this.width = right.subtract(left).doubleValue();
+		this.height = top.subtract(bottom).doubleValue();
+		
+		// Keep only as many digits as are needed to resolve a pixel, except
+		// on the grid, whose edges are exact multiples of a pixel
+		MathContext mc = new MathContext(getPrecision());
+		if (level == UNALIGNED) {
+			top = top.round(mc);
+			bottom = bottom.round(mc);
+			left = left.round(mc);
+			right = right.round(mc);
+		}
+		this.exactTop = top;
+		this.exactBottom = bottom;
+		this.exactLeft = left;
+		this.exactRight = right;
+		this.exactLookTop = lookTop.round(mc);
+		this.exactLookBottom = lookBottom.round(mc);
+		this.exactLookLeft = lookLeft.round(mc);
+		this.exactLookRight = lookRight.round(mc);
+	
+	}
+	
+	/**
+	 * Creates a scene whose pixels lie on a grid shared by every scene of
+	 * the same pixel size, so that scenes can reuse each other's tiles.
+	 * The pixel size is the power of two nearest to the one that fits the
+	 * view to the screen, and the world window is widened to whole tiles of
+	 * {@link RenderingDaemon#TILE_SIZE} pixels on that grid. The image is
+	 * then larger or smaller than the screen, by up to the square root of
+	 * two each way, and is scaled to show the requested view.
+	 * <p>
+	 * Pixel centers on the grid are exact in binary, so the counts of a
+	 * tile do not depend on which scene iterated it.
+	 * 
+	 * @param width the width of the screen in pixels
+	 * @param height the height of the screen in pixels
+	 * @param limit the maximum number of iterations
+	 * @param lookTop the upper world coordinate
+	 * @param lookBottom the lower world coordinate
+	 * @param lookLeft the left world coordinate
+	 * @param lookRight the right world coordinate
+	 * @throws IllegalArgumentException if any resolution is nonpositive
+	 */
+	public static Scene createAligned(int width, int height, int limit,
+			BigDecimal lookTop, BigDecimal lookBottom, BigDecimal lookLeft,
+			BigDecimal lookRight) {
+		
+		BigDecimal[] frame = expand(width, height, lookTop, lookBottom,
+				lookLeft, lookRight);
+		
+		// The nearest power of two, and the width of a tile
+		double size = frame[3].subtract(frame[2]).doubleValue() / width;
+		int level = (int) -Math.rint(Math.log(size) / Math.log(2));
+		BigDecimal span = new BigDecimal(
+				Math.scalb((double) RenderingDaemon.TILE_SIZE, -level));
+		
+		// Widen the frame to whole tiles
+		BigDecimal top = frame[0].divide(span)
+				.setScale(0, RoundingMode.CEILING).multiply(span);
+		BigDecimal bottom = frame[1].divide(span)
+				.setScale(0, RoundingMode.FLOOR).multiply(span);
+		BigDecimal left = frame[2].divide(span)
+				.setScale(0, RoundingMode.FLOOR).multiply(span);
+		BigDecimal right = frame[3].divide(span)
+				.setScale(0, RoundingMode.CEILING).multiply(span);
+		int hRes = right.subtract(left).divide(span).intValue()
+				* RenderingDaemon.TILE_SIZE;
+		int vRes = top.subtract(bottom).divide(span).intValue()
+				* RenderingDaemon.TILE_SIZE;
+		
+		return new Scene(hRes, vRes, limit,
+				new BigDecimal[] {top, bottom, left, right}, lookTop,
+				lookBottom, lookLeft, lookRight, level, width, height);
+	
+	}
+	
+	/**
+	 * Returns the world window that shows a view on a screen of the given
+	 * size, as { top, bottom, left, right }.
+	 * 
+	 * @throws IllegalArgumentException if any resolution is nonpositive
+	 */
+	private static BigDecimal[] expand(int width, int height,
+			BigDecimal lookTop, BigDecimal lookBottom, BigDecimal lookLeft,
+			BigDecimal lookRight) {
+		
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("nonpositive resolution");
+		}
+		
 		// Preserve aspect ratio on screen by expanding world window as needed,
-		// assuming an individual screen pixel has an aspect ratio of 1
-		double wdx = lookRight - lookLeft;
-		double wdy = lookTop - lookBottom;
+		// assuming an individual screen pixel has an aspect ratio of 1. The
+		// differences are rounded once, so doubles give the same results as
+		// plain double arithmetic would.
+		double wdx = lookRight.subtract(lookLeft).doubleValue();
+		double wdy = lookTop.subtract(lookBottom).doubleValue();
 		double wa = wdx / wdy;
-		double sa = hRes / (double) vRes;
+		double sa = width / (double) height;
 		if (wa < sa) {
-			double d = (wdy * sa - wdx) / 2;
-			this.top = lookTop;
-			this.bottom = lookBottom;
-			this.left = lookLeft - d;
-			this.right = lookRight + d;
+			BigDecimal d = new BigDecimal((wdy * sa - wdx) / 2);
+			return new BigDecimal[] {lookTop, lookBottom,
+					lookLeft.subtract(d), lookRight.add(d)};
 		} else {
-			double d = (wdx / sa - wdy) / 2;
-			this.top = lookTop + d;
-			this.bottom = lookBottom - d;
-			this.left = lookLeft;
-			this.right = lookRight;
+			BigDecimal d = new BigDecimal((wdx / sa - wdy) / 2);
+			return new BigDecimal[] {lookTop.add(d), lookBottom.subtract(d),
+					lookLeft, lookRight};
+		}
+	
+	}
+	
+	/**
+	 * Creates a scene for the same screen, with the same limit and options,
+	 * that looks at a rectangle of this scene's pixels. The rectangle's
+	 * edges may fall between pixels, as when it is selected on a scaled
+	 * image.
+	 * 
+	 * @param x the left pixel column of the rectangle
+	 * @param y the top pixel row of the rectangle
+	 * @param width the width of the rectangle in pixels
+	 * @param height the height of the rectangle in pixels
+	 */
+	public Scene createDetail(double x, double y, double width,
+			double height) {
+		double pw = getSeeWidth() / hRes;
+		double ph = getSeeHeight() / vRes;
+		Scene s = derive(frameWidth, frameHeight, limit,
+				exactTop.subtract(new BigDecimal(y * ph)),
+				exactTop.subtract(new BigDecimal((y + height) * ph)),
+				exactLeft.add(new BigDecimal(x * pw)),
+				exactLeft.add(new BigDecimal((x + width) * pw)));
+		s.copyOptions(this);
+		return s;
+	}
+	
+	/**
+	 * Creates a scene of the same view, limit, and options for a screen of
+	 * another size.
+	 * 
+	 * @throws IllegalArgumentException if any resolution is nonpositive
+	 */
+	public Scene withResolution(int hRes, int vRes) {
+		Scene s = derive(hRes, vRes, limit, exactLookTop,
+				exactLookBottom, exactLookLeft, exactLookRight);
+		s.copyOptions(this);
+		return s;
+	}
+	
+	/**
+	 * Creates a scene for the same screen, with the same limit and options,
+	 * whose view is moved by a whole number of this scene's pixels. On the
+	 * grid, the pixels the two scenes share are the same points, so the new
+	 * scene finds them in the tile cache and only iterates the tiles that
+	 * come into view.
+	 * 
+	 * @param dx the pixels to move rightward, or leftward if negative
+	 * @param dy the pixels to move downward, or upward if negative
+	 */
+	public Scene createPanned(int dx, int dy) {
+		BigDecimal pw, ph;
+		if (level == UNALIGNED) {
+			pw = new BigDecimal(getSeeWidth() / hRes);
+			ph = new BigDecimal(getSeeHeight() / vRes);
+		} else {
+			pw = ph = new BigDecimal(Math.scalb(1.0, -level));
+		}
+		BigDecimal x = pw.multiply(BigDecimal.valueOf(dx));
+		BigDecimal y = ph.multiply(BigDecimal.valueOf(dy));
+		Scene s = derive(frameWidth, frameHeight, limit,
+				exactLookTop.subtract(y), exactLookBottom.subtract(y),
+				exactLookLeft.add(x), exactLookRight.add(x));
+		s.copyOptions(this);
+		return s;
+	}
+	
+	/**
+	 * Creates a scene on the grid if this one is, or otherwise a plain
+	 * scene, for a screen of the given size.
+	 */
+	private Scene derive(int width, int height, int limit,
+			BigDecimal lookTop, BigDecimal lookBottom, BigDecimal lookLeft,
+			BigDecimal lookRight) {
+		if (level == UNALIGNED) {
+			return new Scene(width, height, limit, lookTop, lookBottom,
+					lookLeft, lookRight);
+		}
+		return createAligned(width, height, limit, lookTop, lookBottom,
+				lookLeft, lookRight);
+	}
+	
+	private synchronized void copyOptions(Scene from) {
+		synchronized (from) {
+			periodicity = from.periodicity;
+			subdividing = from.subdividing;
+			progressive = from.progressive;
+			resumable = from.resumable;
+			seriesApproximation = from.seriesApproximation;
+			vectorized = from.vectorized;
+			singlePrecision = from.singlePrecision;
+			mirroring = from.mirroring;
+			persistent = from.persistent;
+			indexed = from.indexed;
+			antialiasing = from.antialiasing;
+			antialiasingThreshold = from.antialiasingThreshold;
+			palette = from.palette;
+			cycle = from.cycle;
 		}
-				
 	}
 	
 	public synchronized void setImage(Image output) {
@@ -108,33 +467,759 @@ class Scene {
 			throw new NullPointerException();
 		}
 		this.output = output;
-		this.outputReference = null;
 	}
 	
 	public synchronized Image getImage() {
-		if (outputReference != null) {
-			Object reference = outputReference.get();
-			return (reference == null) ? null : (Image) reference;
-		} else {
-			return output;
+		return output;
+	}
+	
+	/**
+	 * Stores the iteration count of every pixel, in row-major order. A
+	 * count equal to the limit means the point never escaped.
+	 */
+	public synchronized void setCounts(int[] counts) {
+		if (counts == null) {
+			throw new NullPointerException();
+		}
+		this.counts = counts;
+	}
+	
+	/**
+	 * Returns the iteration count of every pixel, in row-major order, or
+	 * null if they have not been computed or were discarded.
+	 */
+	public synchronized int[] getCounts() {
+		return counts;
+	}
+	
+	/**
+	 * Sets the palette used to color this scene. If the palette differs
+	 * from the current one, the image is discarded so it may be recolored
+	 * from the stored iteration counts, unless it is indexed, in which case
+	 * only its colors are replaced.
+	 */
+	public synchronized void setPalette(Palette palette) {
+		if (palette == null) {
+			throw new NullPointerException();
+		}
+		if (palette != this.palette) {
+			this.palette = palette;
+			if (indexed) {
+				recolor();
+			} else {
+				output = null;
+				packedPixels = null;
+			}
+		}
+	}
+	
+	public synchronized Palette getPalette() {
+		return palette;
+	}
+	
+	/**
+	 * Rotates the colors of an indexed image through the palette's cycle,
+	 * replacing only the colors of the image. Scenes that are not indexed
+	 * keep the shift for when they are.
+	 * 
+	 * @param shift the number of places to rotate by, taken modulo
+	 *          {@link Palette#CYCLE_LENGTH}
+	 */
+	public synchronized void setCycle(int shift) {
+		shift %= Palette.CYCLE_LENGTH;
+		if (shift < 0) {
+			shift += Palette.CYCLE_LENGTH;
+		}
+		if (shift != cycle) {
+			cycle = shift;
+			if (indexed) {
+				recolor();
+			}
+		}
+	}
+	
+	public synchronized int getCycle() {
+		return cycle;
+	}
+	
+	/**
+	 * Replaces the image of an indexed scene with one that shares its
+	 * pixels but takes its colors from the current palette and cycle.
+	 */
+	private void recolor() {
+		if (output != null) {
+			output = new BufferedImage(palette.createColorModel(cycle),
+					((BufferedImage) output).getRaster(), false, null);
+		}
+	}
+	
+	/**
+	 * Stores the orbits of the pixels that reached the limit without being
+	 * proven to be in the set.
+	 */
+	public synchronized void setResumeState(ResumeState state) {
+		if (state == null) {
+			throw new NullPointerException();
+		}
+		resumeState = state;
+		resumeBase = null;
+		resumeBaseCounts = null;
+	}
+	
+	/**
+	 * Returns the orbits of the pixels that reached the limit, or null if
+	 * they were not kept or were discarded.
+	 */
+	public synchronized ResumeState getResumeState() {
+		return resumeState;
+	}
+	
+	/**
+	 * Returns the saved orbits this scene may continue from, or null if it
+	 * must be rendered from scratch.
+	 */
+	public synchronized ResumeState getResumeBase() {
+		return resumeBase;
+	}
+	
+	/**
+	 * Returns the iteration counts that go with {@link #getResumeBase()}.
+	 */
+	public synchronized int[] getResumeBaseCounts() {
+		return resumeBaseCounts;
+	}
+	
+	/**
+	 * Creates a scene of the same view and options as this one, but with
+	 * another iteration limit. If the limit is higher and this scene kept
+	 * the orbits of its undecided pixels, the new scene continues from them
+	 * rather than starting over.
+	 * 
+	 * @param limit the new iteration limit
+	 * @throws IllegalArgumentException if <code>limit</code> is nonpositive
+	 */
+	public synchronized Scene withLimit(int limit) {
+		Scene s = derive(frameWidth, frameHeight, limit, exactLookTop,
+				exactLookBottom, exactLookLeft, exactLookRight);
+		s.copyOptions(this);
+		ResumeState state = getResumeState();
+		int[] baseCounts = getCounts();
+		if (limit > this.limit && state != null && baseCounts != null) {
+			s.resumeBase = state;
+			s.resumeBaseCounts = baseCounts;
+		}
+		return s;
+	}
+	
+	/**
+	 * Replaces this scene's counts with a packed copy while it is off
+	 * screen, unless they changed since the copy was made. The image is
+	 * dropped, to be colored again from the counts, unless a packed copy of
+	 * its pixels is given too; that is only worthwhile for antialiased
+	 * images, whose supersampled pixels cost far more to compute again.
+	 * 
+	 * @param unpacked the counts that were packed
+	 * @param image the image that was packed, or that is dropped
+	 * @param packed the packed counts
+	 * @param pixels the packed pixels of <code>image</code>, or null
+	 * @return true if the scene was packed
+	 */
+	public synchronized boolean pack(int[] unpacked, Image image,
+			PackedInts packed, PackedInts pixels) {
+		if (unpacked != counts || image != output || counts == null) {
+			return false;
+		}
+		packedCounts = packed;
+		packedPixels = image != null ? pixels : null;
+		counts = null;
+		output = null;
+		return true;
+	}
+	
+	/**
+	 * Decompresses the counts, and the image if its pixels were packed, of
+	 * a scene returning to the screen. Decompression takes a while, so it is
+	 * done without holding this scene's lock, and by the rendering thread
+	 * rather than the user interface.
+	 * 
+	 * @return true if counts were unpacked
+	 */
+	public boolean unpack() {
+		PackedInts c, p;
+		synchronized (this) {
+			c = packedCounts;
+			p = packedPixels;
+		}
+		if (c == null) {
+			return false;
+		}
+		int[] unpacked = c.unpack();
+		Image image = null;
+		if (p != null) {
+			image = RenderingDaemon.createImage(p.unpack(), hRes, vRes);
+		}
+		synchronized (this) {
+			
+			// Discarded or replaced in the meantime
+			if (packedCounts != c) {
+				return false;
+			}
+			
+			counts = unpacked;
+			if (packedPixels == p && image != null) {
+				output = image;
+			}
+			packedCounts = null;
+			packedPixels = null;
+			return true;
+			
 		}
 	}
 	
-	public synchronized void allowImageGC() {
-		if (output != null && outputReference == null) {
-			outputReference = new SoftReference(output);
-			output = null; 
+	/**
+	 * Returns the approximate number of bytes held by this scene's image,
+	 * counts, and saved orbits, packed or not.
+	 */
+	public synchronized long getDataSize() {
+		long size = 0;
+		if (output != null) {
+			size += (indexed ? 1L : 4L) * hRes * vRes;
+		}
+		if (counts != null) {
+			size += 4L * counts.length;
+		}
+		if (packedCounts != null) {
+			size += packedCounts.getDataSize();
+		}
+		if (packedPixels != null) {
+			size += packedPixels.getDataSize();
+		}
+		if (resumeState != null) {
+			size += resumeState.getDataSize();
 		}
+		return size;
 	}
 	
-	public synchronized void disallowImageGC() {
-		if (outputReference != null) {
-			Object reference = outputReference.get();
-			output = (reference == null) ? null : (Image) reference;
-			outputReference = null;
+	/**
+	 * Discards this scene's image, counts, and saved orbits, so that it
+	 * must be rendered again before it is shown.
+	 */
+	public synchronized void discardData() {
+		output = null;
+		counts = null;
+		packedCounts = null;
+		packedPixels = null;
+		resumeState = null;
+	}
+	
+	/**
+	 * Takes the counts, saved orbits, and statistics of another scene of
+	 * the same view, and its image too if it has the same palette and
+	 * colors. Neither scene modifies them afterwards, so they may be
+	 * shared.
+	 */
+	public synchronized void copyData(Scene from) {
+		synchronized (from) {
+			if (from.palette == palette && from.indexed == indexed
+					&& (!indexed || from.cycle == cycle)) {
+				output = from.output;
+				packedPixels = from.packedPixels;
+			}
+			counts = from.counts;
+			packedCounts = from.packedCounts;
+			resumeState = from.resumeState;
+			iterated = from.iterated;
+			shortCircuited = from.shortCircuited;
+			filled = from.filled;
+			mirrored = from.mirrored;
+			supersampled = from.supersampled;
+			reused = from.reused;
 		}
 	}
 
+	/**
+	 * Turns orbit cycle detection on or off. Cycle detection stops iterating
+	 * points inside the set as soon as their orbit repeats, rather than at
+	 * the iteration limit. It is on by default.
+	 * 
+	 * @param b true to detect cycles
+	 */
+	public synchronized void setPeriodicityChecking(boolean b) {
+		periodicity = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should detect orbit cycles.
+	 */
+	public synchronized boolean isPeriodicityChecking() {
+		return periodicity;
+	}
+	
+	/**
+	 * Turns Mariani-Silver subdivision on or off. Subdivision fills
+	 * rectangles with a uniform border without iterating their interior.
+	 * It is much faster on zoomed-out views, but may miss filaments thinner
+	 * than a pixel, so it is off by default.
+	 * 
+	 * @param b true to subdivide
+	 */
+	public synchronized void setSubdividing(boolean b) {
+		subdividing = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should use Mariani-Silver subdivision.
+	 */
+	public synchronized boolean isSubdividing() {
+		return subdividing;
+	}
+	
+	/**
+	 * Turns progressive rendering on or off. A progressive rendering first
+	 * samples every eighth pixel, then every fourth, second, and finally
+	 * every pixel, publishing a preview after each coarse pass. Interlaced
+	 * passes reuse the samples of coarser ones, so this costs little. It is
+	 * on by default.
+	 * 
+	 * @param b true to render progressively
+	 */
+	public synchronized void setProgressive(boolean b) {
+		progressive = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should publish coarse previews.
+	 */
+	public synchronized boolean isProgressive() {
+		return progressive;
+	}
+	
+	/**
+	 * Turns keeping the orbits of undecided pixels on or off. Pixels that
+	 * reach the limit without being proven to be in the set keep their
+	 * last value of z, so that a scene made with {@link #withLimit(int)}
+	 * only continues those pixels. This costs memory for every such pixel,
+	 * so it is off by default.
+	 * 
+	 * @param b true to keep orbits
+	 */
+	public synchronized void setResumable(boolean b) {
+		resumable = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should keep the orbits of undecided
+	 * pixels.
+	 */
+	public synchronized boolean isResumable() {
+		return resumable;
+	}
+	
+	/**
+	 * Turns series approximation on or off for deep views rendered by
+	 * perturbation. The approximation skips the first iterations of every
+	 * pixel while the orbits still differ from the reference orbit by a
+	 * polynomial in the pixel offset. It is on by default.
+	 * 
+	 * @param b true to approximate
+	 */
+	public synchronized void setSeriesApproximation(boolean b) {
+		seriesApproximation = b;
+	}
+	
+	/**
+	 * Returns true if the perturbation renderer may skip iterations using
+	 * a series approximation.
+	 */
+	public synchronized boolean isSeriesApproximation() {
+		return seriesApproximation;
+	}
+	
+	/**
+	 * Turns iterating several pixels at once with vector instructions on or
+	 * off. The images are identical either way. Vector instructions are
+	 * only available when the JVM is started with
+	 * <code>--add-modules jdk.incubator.vector</code>; otherwise pixels are
+	 * iterated in pairs without them regardless. It is off by default.
+	 * 
+	 * @param b true to use vector instructions where available
+	 */
+	public synchronized void setVectorized(boolean b) {
+		vectorized = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should use vector instructions where
+	 * available.
+	 */
+	public synchronized boolean isVectorized() {
+		return vectorized;
+	}
+	
+	/**
+	 * Turns iterating shallow views in floats first on or off. Floats fit
+	 * twice as many pixels in a vector as doubles; the pixels they cannot
+	 * decide exactly are iterated again in doubles, so the images are
+	 * identical either way. Like vector instructions, this is only
+	 * available when the JVM is started with
+	 * <code>--add-modules jdk.incubator.vector</code>. It is off by
+	 * default.
+	 * 
+	 * @param b true to iterate in floats first where it pays off
+	 * @see #usesSinglePrecision()
+	 */
+	public synchronized void setSinglePrecision(boolean b) {
+		singlePrecision = b;
+	}
+	
+	/**
+	 * Returns true if the renderer may iterate shallow views in floats
+	 * first.
+	 */
+	public synchronized boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	/**
+	 * Returns true if this view's pixels should be iterated in floats
+	 * first. Floats carry 24 bits, and rounding a coordinate to them moves
+	 * it by up to a unit in the last place, so they are used only while
+	 * single precision is on, the view is rendered in {@link #DOUBLE}s, and
+	 * pixels are at least 2^9 float units in the last place of the view's
+	 * largest coordinate apart. Deeper, nearly every pixel would have to
+	 * be iterated again in doubles.
+	 */
+	public boolean usesSinglePrecision() {
+		double magnitude = Math.max(
+				Math.max(Math.abs(top), Math.abs(bottom)),
+				Math.max(Math.abs(left), Math.abs(right)));
+		return isSinglePrecision() && getArithmetic() == DOUBLE
+				&& getPixelSize() >= magnitude * SINGLE_PRECISION_THRESHOLD;
+	}
+	
+	/**
+	 * Turns mirroring across the real axis on or off. The set is symmetric
+	 * about the axis, so when a view's rows line up on both sides of it,
+	 * the rows of the smaller side are copied from their mirror images
+	 * instead of being iterated. The images are identical either way. It is
+	 * on by default, but has no effect when subdividing.
+	 * 
+	 * @param b true to mirror rows
+	 */
+	public synchronized void setMirroring(boolean b) {
+		mirroring = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should mirror rows across the real axis.
+	 */
+	public synchronized boolean isMirroring() {
+		return mirroring;
+	}
+	
+	/**
+	 * Turns keeping the scene's counts in the renderer's disk cache on or
+	 * off. Previews that are shown for a moment are not worth writing. It
+	 * is on by default.
+	 * 
+	 * @param b true to load and store counts on disk
+	 */
+	public synchronized void setPersistent(boolean b) {
+		persistent = b;
+	}
+	
+	/**
+	 * Returns true if the renderer should keep the scene's counts on disk.
+	 */
+	public synchronized boolean isPersistent() {
+		return persistent;
+	}
+	
+	/**
+	 * Turns indexed color on or off. The image of an indexed scene holds,
+	 * for each pixel, the index of its count's color in the palette's
+	 * cycle, and takes the colors themselves from a color model. Changing
+	 * the palette or cycling its colors then replaces only the color
+	 * model, and the image is redrawn without touching its pixels. Indexed
+	 * scenes are not antialiased. It is off by default.
+	 * <p>
+	 * If the setting changes, the image is discarded so it may be colored
+	 * again from the stored iteration counts.
+	 * 
+	 * @param b true to make an indexed image
+	 * @see Palette#CYCLE_LENGTH
+	 */
+	public synchronized void setIndexed(boolean b) {
+		if (b != indexed) {
+			indexed = b;
+			output = null;
+			packedPixels = null;
+		}
+	}
+	
+	/**
+	 * Returns true if the scene's image is indexed.
+	 */
+	public synchronized boolean isIndexed() {
+		return indexed;
+	}
+	
+	/**
+	 * Sets how finely the pixels on edges are supersampled. Once every
+	 * pixel has been sampled at its center, those whose iteration count
+	 * differs from a neighbor's by more than the threshold are sampled
+	 * again at a grid of points, and take the average of their colors.
+	 * With one sample, which is the default, nothing is supersampled.
+	 * <p>
+	 * Supersampled colors are not stored as counts, so changing the palette
+	 * of an antialiased scene supersamples its edges again.
+	 * 
+	 * @param samples the number of points along each side of the grid
+	 * @throws IllegalArgumentException if <code>samples</code> is
+	 *           nonpositive
+	 */
+	public synchronized void setAntialiasing(int samples) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("nonpositive sample count");
+		}
+		antialiasing = samples;
+	}
+	
+	/**
+	 * Returns the number of points along each side of the grid at which
+	 * edge pixels are supersampled, or one to not supersample, as for
+	 * indexed scenes.
+	 */
+	public synchronized int getAntialiasing() {
+		return indexed ? 1 : antialiasing;
+	}
+	
+	/**
+	 * Sets how much the iteration counts of neighboring pixels must differ
+	 * for both to be supersampled. It is one by default, which leaves
+	 * smooth gradients of consecutive counts alone.
+	 * 
+	 * @param threshold the largest difference that is not an edge
+	 * @throws IllegalArgumentException if <code>threshold</code> is
+	 *           negative
+	 */
+	public synchronized void setAntialiasingThreshold(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("negative threshold");
+		}
+		antialiasingThreshold = threshold;
+	}
+	
+	/**
+	 * Returns the largest difference between the iteration counts of
+	 * neighboring pixels that is not supersampled.
+	 */
+	public synchronized int getAntialiasingThreshold() {
+		return antialiasingThreshold;
+	}
+	
+	/**
+	 * Returns the arithmetic that renders this view fastest while still
+	 * resolving its pixels: {@link #DOUBLE}, {@link #DOUBLE_DOUBLE}, or
+	 * {@link #PERTURBATION}.
+	 * <p>
+	 * Iterating in doubles loses a few bits of every coordinate, so doubles
+	 * are used only while pixels are at least 2^10 units in the last place
+	 * of the view's largest coordinate apart. Double-doubles carry 53 more
+	 * bits, but orbits passing close to zero lose many of them, so they are
+	 * used only while pixels are at least 2^-64 of the largest coordinate
+	 * apart. Deeper views are rendered by perturbation around a reference
+	 * orbit computed exactly.
+	 */
+	public int getArithmetic() {
+		double magnitude = Math.max(
+				Math.max(Math.abs(top), Math.abs(bottom)),
+				Math.max(Math.abs(left), Math.abs(right)));
+		double size = getPixelSize();
+		if (size >= magnitude * DOUBLE_DOUBLE_THRESHOLD) {
+			return DOUBLE;
+		} else if (size >= magnitude * PERTURBATION_THRESHOLD) {
+			return DOUBLE_DOUBLE;
+		} else {
+			return PERTURBATION;
+		}
+	}
+	
+	/**
+	 * Returns the smaller of a pixel's width and height in world units.
+	 */
+	public double getPixelSize() {
+		return Math.min(getSeeWidth() / hRes, getSeeHeight() / vRes);
+	}
+	
+	/**
+	 * Returns the number of significant decimal digits needed to locate a
+	 * pixel of this scene, with a comfortable margin.
+	 */
+	public int getPrecision() {
+		double magnitude = Math.max(
+				Math.max(Math.abs(top), Math.abs(bottom)),
+				Math.max(Math.abs(left), Math.abs(right)));
+		double digits = Math.log(Math.max(magnitude, 1) / getPixelSize())
+				/ Math.log(10);
+		return 20 + (int) Math.ceil(Math.max(0, digits));
+	}
+	
+	/**
+	 * Records how the renderer found the pixels of this scene.
+	 * 
+	 * @param iterated the number of pixels iterated
+	 * @param shortCircuited the number of pixels found to be in the set by
+	 *          an analytic test, without iterating them
+	 * @param filled the number of pixels filled by subdivision
+	 * @param mirrored the number of pixels copied from their mirror image
+	 *          across the real axis
+	 */
+	public synchronized void setPixelCounts(int iterated,
+			int shortCircuited, int filled, int mirrored) {
+		this.iterated = iterated;
+		this.shortCircuited = shortCircuited;
+		this.filled = filled;
+		this.mirrored = mirrored;
+	}
+	
+	/**
+	 * Returns the number of pixels in the rendered image that were iterated.
+	 */
+	public synchronized int getIteratedPixels() {
+		return iterated;
+	}
+	
+	/**
+	 * Returns the number of pixels in the rendered image that were found to
+	 * be in the set without iterating them.
+	 */
+	public synchronized int getShortCircuitedPixels() {
+		return shortCircuited;
+	}
+	
+	/**
+	 * Returns the number of pixels in the rendered image that were filled
+	 * by subdivision without iterating them.
+	 */
+	public synchronized int getFilledPixels() {
+		return filled;
+	}
+	
+	/**
+	 * Returns the number of pixels in the rendered image that were copied
+	 * from their mirror image across the real axis.
+	 */
+	public synchronized int getMirroredPixels() {
+		return mirrored;
+	}
+	
+	/**
+	 * Records the number of pixels in the image that were supersampled.
+	 */
+	public synchronized void setSupersampledPixels(int supersampled) {
+		this.supersampled = supersampled;
+	}
+	
+	/**
+	 * Returns the number of pixels in the image that were supersampled.
+	 */
+	public synchronized int getSupersampledPixels() {
+		return supersampled;
+	}
+	
+	/**
+	 * Records the number of pixels taken from tiles of other scenes.
+	 */
+	public synchronized void setReusedPixels(int reused) {
+		this.reused = reused;
+	}
+	
+	/**
+	 * Returns the number of pixels taken from tiles of other scenes.
+	 */
+	public synchronized int getReusedPixels() {
+		return reused;
+	}
+
+	/**
+	 * Returns the width of the world window, computed from its exact edges.
+	 */
+	public double getSeeWidth() {
+		return width;
+	}
+	
+	/**
+	 * Returns the height of the world window, computed from its exact edges.
+	 */
+	public double getSeeHeight() {
+		return height;
+	}
+	
+	/**
+	 * Returns the width of the requested view, computed from its exact
+	 * edges.
+	 */
+	public double getLookWidth() {
+		return exactLookRight.subtract(exactLookLeft).doubleValue();
+	}
+	
+	/**
+	 * Returns the height of the requested view, computed from its exact
+	 * edges.
+	 */
+	public double getLookHeight() {
+		return exactLookTop.subtract(exactLookBottom).doubleValue();
+	}
+	
+	/**
+	 * Returns the distance from the left of the world window to the left of
+	 * the requested view.
+	 */
+	public double getLookOffsetX() {
+		return exactLookLeft.subtract(exactLeft).doubleValue();
+	}
+	
+	/**
+	 * Returns the distance from the top of the world window to the top of
+	 * the requested view.
+	 */
+	public double getLookOffsetY() {
+		return exactTop.subtract(exactLookTop).doubleValue();
+	}
+	
+	public BigDecimal getExactSeeTop() {
+		return exactTop;
+	}
+	
+	public BigDecimal getExactSeeBottom() {
+		return exactBottom;
+	}
+	
+	public BigDecimal getExactSeeLeft() {
+		return exactLeft;
+	}
+	
+	public BigDecimal getExactSeeRight() {
+		return exactRight;
+	}
+
+	/**
+	 * Returns true if this scene's pixels lie on the grid shared by scenes
+	 * of the same pixel size.
+	 */
+	public boolean isAligned() {
+		return level != UNALIGNED;
+	}
+	
+	/**
+	 * Returns the pixel size of a scene on the grid as a power of two,
+	 * 2^-level.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
 	public double getSeeTop() {
 		return top;
 	}
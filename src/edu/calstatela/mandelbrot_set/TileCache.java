@@ -0,0 +1,284 @@
+/*
+ * TileCache.java
+ * cs450
+ *
+ * Copyright (c) 2004 Matthew Nelson. All Rights Reserved.
+ * See LICENSE for the full notice.
+ */
+
+package edu.calstatela.mandelbrot_set;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Holds the iteration counts of tiles of the world, within a budget of
+ * bytes, so that scenes on the grid reuse the tiles other scenes computed.
+ * The tiles form a quadtree: at level <i>n</i>, pixels are 2^-<i>n</i>
+ * world units wide and a tile is {@link RenderingDaemon#TILE_SIZE} pixels
+ * square, with edges on multiples of its width. Tiles are keyed by level
+ * and position, so a scene resized within the same level, moved, or
+ * returned to, finds every tile it shares with scenes before it. Tiles
+ * used least recently are dropped first.
+ * <p>
+ * Only scenes made by {@link Scene#createAligned(int, int, int, BigDecimal,
+ * BigDecimal, BigDecimal, BigDecimal)} use tiles, and only if their counts
+ * do not depend on how the scene is cut into tiles: subdivided scenes,
+ * whose filled rectangles do, and perturbed scenes, whose reference orbit
+ * does, are always rendered whole. Tiles keep the orbits of their undecided pixels
+ * when the scene does, so that their limit can be raised.
+ *
+ * @author Matthew Nelson
+ */
+class TileCache {
+
+	/**
+	 * Tiles by key, from least to most recently used.
+	 */
+	private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+	private long budget;
+	private long size = 0;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param budget the most bytes of tiles to hold
+	 */
+	public TileCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Changes the most bytes of tiles to hold, dropping tiles as needed.
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of bytes of tiles held.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns true if a scene can be assembled from tiles.
+	 */
+	public static boolean accepts(Scene scene) {
+		return scene.isAligned() && !scene.isSubdividing()
+				&& scene.getArithmetic() != Scene.PERTURBATION;
+	}
+
+	/**
+	 * Copies the counts of every cached tile of a scene into its buffer,
+	 * and their orbits into its saved orbits.
+	 *
+	 * @param scene a scene the cache accepts
+	 * @param counts the scene's counts, in row-major order
+	 * @param undecided receives the orbits, translated to the scene's
+	 *          pixels, or null if the scene does not keep them
+	 * @return whether each of the scene's tiles, in row-major order, was
+	 *         found, or null if none were
+	 */
+	public synchronized boolean[] load(Scene scene, int[] counts,
+			ResumeState undecided) {
+
+		final int size = RenderingDaemon.TILE_SIZE;
+		final int sdx = scene.getHorizontalResolution();
+		final int columns = sdx / size;
+		final int rows = scene.getVerticalResolution() / size;
+		BigInteger[] origin = getOrigin(scene);
+
+		boolean[] found = null;
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				Tile tile = (Tile) entries.get(
+						new Key(scene, origin, column, row));
+				if (tile == null) {
+					continue;
+				}
+				if (found == null) {
+					found = new boolean[columns * rows];
+				}
+				found[row * columns + column] = true;
+
+				int offset = row * size * sdx + column * size;
+				for (int y = 0; y < size; ++y) {
+					System.arraycopy(tile.counts, y * size, counts,
+							offset + y * sdx, size);
+				}
+				if (undecided != null) {
+					ResumeState orbits = tile.orbits;
+					for (int e = 0; e < orbits.size(); ++e) {
+						int i = orbits.getIndex(e);
+						undecided.add(offset + i / size * sdx + i % size,
+								orbits.getX(e), orbits.getY(e),
+								orbits.getCount(e));
+					}
+				}
+			}
+		}
+		return found;
+
+	}
+
+	/**
+	 * Adds the tiles of a finished scene that were not loaded from the
+	 * cache.
+	 *
+	 * @param scene a scene the cache accepts
+	 * @param counts the scene's counts, in row-major order
+	 * @param undecided the scene's saved orbits, or null if it does not
+	 *          keep them
+	 * @param loaded the tiles loaded from the cache, as returned by
+	 *          {@link #load(Scene, int[], ResumeState)}
+	 */
+	public synchronized void store(Scene scene, int[] counts,
+			ResumeState undecided, boolean[] loaded) {
+
+		final int size = RenderingDaemon.TILE_SIZE;
+		final int sdx = scene.getHorizontalResolution();
+		final int columns = sdx / size;
+		final int rows = scene.getVerticalResolution() / size;
+		final int limit = scene.getLimit();
+		BigInteger[] origin = getOrigin(scene);
+
+		// Sort the orbits by tile
+		ResumeState[] orbits = new ResumeState[columns * rows];
+		if (undecided != null) {
+			for (int t = 0; t < orbits.length; ++t) {
+				orbits[t] = new ResumeState(limit);
+			}
+			for (int e = 0; e < undecided.size(); ++e) {
+				int i = undecided.getIndex(e);
+				int x = i % sdx;
+				int y = i / sdx;
+				orbits[y / size * columns + x / size].add(
+						y % size * size + x % size, undecided.getX(e),
+						undecided.getY(e), undecided.getCount(e));
+			}
+		}
+
+		for (int row = 0; row < rows; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				int t = row * columns + column;
+				if (loaded != null && loaded[t]) {
+					continue;
+				}
+				int[] tileCounts = new int[size * size];
+				int offset = row * size * sdx + column * size;
+				for (int y = 0; y < size; ++y) {
+					System.arraycopy(counts, offset + y * sdx, tileCounts,
+							y * size, size);
+				}
+				Tile tile = new Tile(tileCounts, orbits[t]);
+				Tile old = (Tile) entries.put(
+						new Key(scene, origin, column, row), tile);
+				if (old != null) {
+					this.size -= old.getDataSize();
+				}
+				this.size += tile.getDataSize();
+			}
+		}
+		evict();
+
+	}
+
+	/**
+	 * Drops the least recently used tiles until the rest fit the budget.
+	 */
+	private void evict() {
+		Iterator i = entries.values().iterator();
+		while (size > budget && i.hasNext()) {
+			Tile tile = (Tile) i.next();
+			i.remove();
+			size -= tile.getDataSize();
+		}
+	}
+
+	/**
+	 * Returns the position of a scene's top left tile, in tiles from the
+	 * origin, rightward and downward.
+	 */
+	private static BigInteger[] getOrigin(Scene scene) {
+		BigDecimal span = new BigDecimal(Math.scalb(
+				(double) RenderingDaemon.TILE_SIZE, -scene.getLevel()));
+		return new BigInteger[] {
+				scene.getExactSeeLeft().divide(span).toBigIntegerExact(),
+				scene.getExactSeeTop().divide(span).negate()
+						.toBigIntegerExact()};
+	}
+
+	/**
+	 * The counts of a tile in row-major order, and the orbits of its
+	 * undecided pixels, indexed within the tile, or null if not kept.
+	 */
+	private static class Tile {
+
+		final int[] counts;
+		final ResumeState orbits;
+
+		Tile(int[] counts, ResumeState orbits) {
+			this.counts = counts;
+			this.orbits = orbits;
+		}
+
+		long getDataSize() {
+			return 4L * counts.length
+					+ (orbits != null ? orbits.getDataSize() : 0);
+		}
+
+	}
+
+	/**
+	 * Identifies a tile: its level and position, and what its counts
+	 * depend on besides.
+	 */
+	private static class Key {
+
+		private final int level;
+		private final BigInteger x;
+		private final BigInteger y;
+		private final int limit;
+		private final int arithmetic;
+		private final boolean orbits;
+
+		Key(Scene scene, BigInteger[] origin, int column, int row) {
+			level = scene.getLevel();
+			x = origin[0].add(BigInteger.valueOf(column));
+			y = origin[1].add(BigInteger.valueOf(row));
+			limit = scene.getLimit();
+			arithmetic = scene.getArithmetic();
+			orbits = scene.isResumable() && arithmetic == Scene.DOUBLE;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return level == k.level && x.equals(k.x) && y.equals(k.y)
+					&& limit == k.limit && arithmetic == k.arithmetic
+					&& orbits == k.orbits;
+		}
+
+		public int hashCode() {
+			int h = level;
+			h = 31 * h + x.hashCode();
+			h = 31 * h + y.hashCode();
+			h = 31 * h + limit;
+			return h;
+		}
+
+	}
+
+}